@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Turning a URL into the names it is cached under: {@link Utilities#md5} as it
+ * is, and the schemes that could replace it. Every request normalizes its URL
+ * and every disk lookup hashes it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyBenchmark {
+
+	private String[] mUrls;
+	private int mNext;
+	private KeyNormalizer mNormalizer;
+	private MessageDigest mMd5;
+
+	@Setup
+	public void setUp() throws NoSuchAlgorithmException {
+		mUrls = Urls.generate(1024, 8, 42);
+		mNormalizer = new DefaultKeyNormalizer();
+		mMd5 = MessageDigest.getInstance("MD5");
+	}
+
+	private String nextUrl() {
+		mNext = (mNext + 1) & (mUrls.length - 1);
+		return mUrls[mNext];
+	}
+
+	@Benchmark
+	public String md5() {
+		return Utilities.md5(nextUrl());
+	}
+
+	/**
+	 * A new digest each time, like {@link Utilities#md5}, but with every byte
+	 * written as two hex digits.
+	 */
+	@Benchmark
+	public String md5Hex() throws NoSuchAlgorithmException {
+		MessageDigest digest = MessageDigest.getInstance("MD5");
+		return Utilities.toHex(digest.digest(nextUrl().getBytes()));
+	}
+
+	/**
+	 * One digest reused by the thread, as a ThreadLocal would give.
+	 */
+	@Benchmark
+	public String md5ReusedDigest() {
+		mMd5.reset();
+		return Utilities.toHex(mMd5.digest(nextUrl().getBytes()));
+	}
+
+	@Benchmark
+	public String sha1Hex() throws NoSuchAlgorithmException {
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		return Utilities.toHex(digest.digest(nextUrl().getBytes()));
+	}
+
+	/**
+	 * A 64 bit FNV-1a hash of the characters, which needs no digest at all but
+	 * is more likely to collide.
+	 */
+	@Benchmark
+	public String fnv64() {
+		String url = nextUrl();
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < url.length(); i++) {
+			hash ^= url.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return Long.toHexString(hash);
+	}
+
+	@Benchmark
+	public String normalize() {
+		return mNormalizer.normalize(nextUrl());
+	}
+
+	@Benchmark
+	public String normalizeAndMd5() {
+		return Utilities.md5(mNormalizer.normalize(nextUrl()));
+	}
+}
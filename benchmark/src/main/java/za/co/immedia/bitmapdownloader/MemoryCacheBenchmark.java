@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.graphics.Bitmap;
+
+/**
+ * The {@link BitmapCache} as a feed uses it: mostly thumbnails with a few large
+ * images, requested with a Zipf distribution so that a few images are asked
+ * for again and again and most only now and then.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MemoryCacheBenchmark {
+
+	// how many different images there are
+	@Param({ "200", "2000" })
+	public int images;
+
+	// how strongly requests favour the popular images
+	@Param({ "0.8", "1.2" })
+	public double skew;
+
+	private BitmapCache mCache;
+	private String[] mUrls;
+	private Bitmap[] mBitmaps;
+	private int[] mRequests;
+	private int mNext;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		mUrls = Urls.generate(images, 8, 42);
+		mBitmaps = new Bitmap[images];
+		for (int i = 0; i < images; i++) {
+			int kind = random.nextInt(100);
+			if (kind < 60) {
+				mBitmaps[i] = Bitmap.createBitmap(128, 128, Bitmap.Config.ARGB_8888);
+			} else if (kind < 85) {
+				mBitmaps[i] = Bitmap.createBitmap(256, 256, Bitmap.Config.ARGB_8888);
+			} else if (kind < 95) {
+				mBitmaps[i] = Bitmap.createBitmap(512, 512, Bitmap.Config.RGB_565);
+			} else {
+				mBitmaps[i] = Bitmap.createBitmap(768, 512, Bitmap.Config.ARGB_8888);
+			}
+		}
+		mRequests = zipf(random, images, skew, 1 << 16);
+		mCache = new BitmapCache();
+		// fill the cache as it would be after a while
+		for (int request : mRequests) {
+			getOrPut(request);
+		}
+	}
+
+	/**
+	 * @return count draws from 0 to n - 1, where i is drawn in proportion to 1
+	 *         / (i + 1)^skew
+	 */
+	private static int[] zipf(Random random, int n, double skew, int count) {
+		double[] cumulative = new double[n];
+		double total = 0;
+		for (int i = 0; i < n; i++) {
+			total += 1 / Math.pow(i + 1, skew);
+			cumulative[i] = total;
+		}
+		int[] draws = new int[count];
+		for (int i = 0; i < count; i++) {
+			int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+			draws[i] = Math.min(index >= 0 ? index : -index - 1, n - 1);
+		}
+		return draws;
+	}
+
+	private int nextRequest() {
+		mNext = (mNext + 1) & (mRequests.length - 1);
+		return mRequests[mNext];
+	}
+
+	private Bitmap getOrPut(int image) {
+		Bitmap bitmap = mCache.getBitmap(mUrls[image]);
+		if (bitmap == null) {
+			bitmap = mBitmaps[image];
+			mCache.addBitmap(mUrls[image], null, mUrls[image], bitmap, bitmap.getWidth(), bitmap.getHeight());
+		}
+		return bitmap;
+	}
+
+	@Benchmark
+	public Bitmap get() {
+		return mCache.getBitmap(mUrls[nextRequest()]);
+	}
+
+	@Benchmark
+	public void put() {
+		int image = nextRequest();
+		mCache.addBitmap(mUrls[image], null, mUrls[image], mBitmaps[image], mBitmaps[image].getWidth(), mBitmaps[image].getHeight());
+	}
+
+	/**
+	 * A lookup, and on a miss the decoded image being added, as each request
+	 * does.
+	 */
+	@Benchmark
+	public Bitmap getOrPut() {
+		return getOrPut(nextRequest());
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.graphics.BitmapFactory;
+
+/**
+ * {@link BitmapLoaderTask#calculateInSampleSize}, for image sizes from
+ * thumbnails to camera photos.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SampleSizeBenchmark {
+
+	private BitmapFactory.Options[] mOptions;
+	private int[] mReqSizes;
+	private int mNext;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		mOptions = new BitmapFactory.Options[1024];
+		mReqSizes = new int[mOptions.length];
+		for (int i = 0; i < mOptions.length; i++) {
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.outWidth = 64 + random.nextInt(4000);
+			options.outHeight = 64 + random.nextInt(3000);
+			mOptions[i] = options;
+			mReqSizes[i] = SizeBuckets.bucket(32 + random.nextInt(1024));
+		}
+	}
+
+	@Benchmark
+	public int calculateInSampleSize() {
+		mNext = (mNext + 1) & (mOptions.length - 1);
+		return BitmapLoaderTask.calculateInSampleSize(mOptions[mNext], mReqSizes[mNext], mReqSizes[mNext]);
+	}
+}
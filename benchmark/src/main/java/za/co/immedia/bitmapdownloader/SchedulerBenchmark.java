@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What {@link BitmapDownloader.Download} asks of the {@link DownloadScheduler}
+ * while a list scrolls, with depth downloads waiting behind one that is
+ * running. Each operation leaves the queue as deep as it found it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SchedulerBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int depth;
+
+	@Param({ "1", "8" })
+	public int hosts;
+
+	private DownloadScheduler mScheduler;
+	// the job that is running, set by the scheduler starting it
+	private Job mRunning;
+	// the waiting jobs, oldest first
+	private ArrayDeque<Job> mQueued;
+	private Job[] mQueuedJobs;
+	private int[] mPicks;
+	private int mNext;
+	private int mKeys;
+
+	private class Job implements DownloadScheduler.Job {
+		private final String mKey;
+		private final String mHost;
+
+		Job(String key, String host) {
+			mKey = key;
+			mHost = host;
+		}
+
+		@Override
+		public String getKey() {
+			return mKey;
+		}
+
+		@Override
+		public String getHost() {
+			return mHost;
+		}
+
+		@Override
+		public boolean start() {
+			mRunning = this;
+			return true;
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		mScheduler = new DownloadScheduler(1);
+		mQueued = new ArrayDeque<Job>();
+		mScheduler.submit(newJob());
+		for (int i = 0; i < depth; i++) {
+			Job job = newJob();
+			mScheduler.submit(job);
+			mQueued.add(job);
+		}
+		mQueuedJobs = mQueued.toArray(new Job[depth]);
+		Random random = new Random(42);
+		mPicks = new int[1024];
+		for (int i = 0; i < mPicks.length; i++) {
+			mPicks[i] = random.nextInt(depth);
+		}
+	}
+
+	private Job newJob() {
+		int key = mKeys++;
+		return new Job("http://" + Urls.host(key, hosts) + "/" + key + ".jpg", Urls.host(key, hosts));
+	}
+
+	private Job pick() {
+		mNext = (mNext + 1) & (mPicks.length - 1);
+		return mQueuedJobs[mPicks[mNext]];
+	}
+
+	/**
+	 * A new request joins the back of the queue and is cancelled straight away,
+	 * as when a view is recycled during a fling.
+	 */
+	@Benchmark
+	public void submitAndRemove() {
+		Job job = newJob();
+		mScheduler.submit(job);
+		mScheduler.remove(job);
+	}
+
+	/**
+	 * The oldest waiting request is cancelled and requested again.
+	 */
+	@Benchmark
+	public void removeOldestAndResubmit() {
+		Job job = mQueued.poll();
+		mScheduler.remove(job);
+		mScheduler.submit(job);
+		mQueued.add(job);
+	}
+
+	/**
+	 * A request for an image that is already queued waits for it, and is then
+	 * cancelled.
+	 */
+	@Benchmark
+	public boolean coalesceAndRemove() {
+		Job queued = pick();
+		Job duplicate = new Job(queued.getKey(), queued.getHost());
+		boolean started = mScheduler.submit(duplicate);
+		mScheduler.remove(duplicate);
+		return started;
+	}
+
+	/**
+	 * The running download finishes, the next one starts, and a new request
+	 * takes its place in the queue.
+	 */
+	@Benchmark
+	public List<DownloadScheduler.Job> finishAndStartNext() {
+		List<DownloadScheduler.Job> duplicates = mScheduler.finished(mRunning);
+		mScheduler.submit(newJob());
+		return duplicates;
+	}
+}
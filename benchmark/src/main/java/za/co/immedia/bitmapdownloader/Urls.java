@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.Random;
+
+/**
+ * Image URLs shaped like those of a typical feed: a few hosts, a path with an
+ * id and size, and sometimes a query string.
+ */
+class Urls {
+
+	private static final String[] HOSTS = { "images.example.com", "cdn1.example.net", "cdn2.example.net", "avatars.example.org",
+			"static.example.com", "media.example.io", "img.example.co.za", "thumbs.example.com" };
+
+	private Urls() {
+	}
+
+	/**
+	 * @param hosts
+	 *          how many different hosts the URLs are spread over, at most 8
+	 */
+	static String[] generate(int count, int hosts, long seed) {
+		Random random = new Random(seed);
+		String[] urls = new String[count];
+		for (int i = 0; i < count; i++) {
+			StringBuilder url = new StringBuilder("http://").append(HOSTS[i % hosts]).append("/photos/");
+			url.append(Long.toHexString(random.nextLong())).append('/').append(i).append("_").append(64 << random.nextInt(5)).append(".jpg");
+			if (random.nextInt(4) == 0) {
+				url.append("?v=").append(random.nextInt(100)).append("&utm_source=feed");
+			}
+			urls[i] = url.toString();
+		}
+		return urls;
+	}
+
+	static String host(int index, int hosts) {
+		return HOSTS[index % hosts];
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader.simulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import za.co.immedia.bitmapdownloader.BitmapDownloader;
+import za.co.immedia.bitmapdownloader.EventListener;
+
+/**
+ * Follows every request the list makes, to work out how long each position
+ * took to show its image and how much work the pipeline did.
+ */
+class EventCollector implements EventListener {
+
+	/**
+	 * One request for the image of a position.
+	 */
+	static class Request {
+		final int position;
+		final long requestedNanos;
+		long deliveredNanos = -1;
+
+		Request(int position, long requestedNanos) {
+			this.position = position;
+			this.requestedNanos = requestedNanos;
+		}
+	}
+
+	private final IdentityHashMap<BitmapDownloader.Download, Request> mRequests = new IdentityHashMap<BitmapDownloader.Download, Request>();
+	private final HashMap<Integer, List<Request>> mByPosition = new HashMap<Integer, List<Request>>();
+	// the completed downloads of each URL
+	private final HashMap<String, Integer> mCompleted = new HashMap<String, Integer>();
+	private int mBindingPosition = -1;
+	private int mDecodes;
+	private int mCancellations;
+	private int mAborted;
+
+	/**
+	 * Sets the position whose image is about to be requested, on the main
+	 * thread, or -1 if the request should not be followed.
+	 */
+	synchronized void setBindingPosition(int position) {
+		mBindingPosition = position;
+	}
+
+	@Override
+	public synchronized void onEvent(BitmapDownloader.Download download, int stage, long nanos) {
+		switch (stage) {
+		case REQUESTED:
+			if (mBindingPosition == -1) {
+				break;
+			}
+			Request request = new Request(mBindingPosition, nanos);
+			mRequests.put(download, request);
+			List<Request> requests = mByPosition.get(mBindingPosition);
+			if (requests == null) {
+				requests = new ArrayList<Request>();
+				mByPosition.put(mBindingPosition, requests);
+			}
+			requests.add(request);
+			break;
+		case DELIVERED:
+			Request delivered = mRequests.get(download);
+			if (delivered != null) {
+				delivered.deliveredNanos = nanos;
+			}
+			break;
+		case BODY_COMPLETE:
+			Integer completed = mCompleted.get(download.getUrl());
+			mCompleted.put(download.getUrl(), completed != null ? completed + 1 : 1);
+			break;
+		case DOWNLOAD_ABORTED:
+			mAborted++;
+			break;
+		case DECODE_START:
+			mDecodes++;
+			break;
+		case CANCELLED:
+			mCancellations++;
+			break;
+		}
+	}
+
+	/**
+	 * @return the requests made for position, oldest first
+	 */
+	synchronized List<Request> getRequests(int position) {
+		List<Request> requests = mByPosition.get(position);
+		return requests != null ? new ArrayList<Request>(requests) : new ArrayList<Request>();
+	}
+
+	synchronized int getCompleted(String url) {
+		Integer completed = mCompleted.get(url);
+		return completed != null ? completed : 0;
+	}
+
+	synchronized int getDecodes() {
+		return mDecodes;
+	}
+
+	synchronized int getCancellations() {
+		return mCancellations;
+	}
+
+	synchronized int getAborted() {
+		return mAborted;
+	}
+}
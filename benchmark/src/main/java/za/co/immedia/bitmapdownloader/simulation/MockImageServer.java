@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader.simulation;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local image server with a slow, unreliable network in front of it. Image i
+ * is served at /img/i.png, and is a PNG padded out to a realistic size, different
+ * from every other image so that the disk cache cannot share them.
+ * <p>
+ * Each response waits for the latency before its headers, then trickles its
+ * body out at the bandwidth. Some images always redirect, to /cdn/i.png, some
+ * requests fail with a 503 and some responses slow to a trickle half way
+ * through. All of these are decided by the seed, so runs are repeatable.
+ * </p>
+ */
+class MockImageServer {
+
+	private static final int CHUNK = 4096;
+	// how long a stalled response waits between chunks
+	private static final long STALL_MILLIS = 10 * 1000;
+
+	private final Simulation.Config mConfig;
+	private final byte[][] mImages;
+	private final HttpServer mServer;
+	private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+	private final Random mRandom;
+	// counted per image
+	private final AtomicIntegerArray mFetches;
+	private final AtomicLong mBytesSent = new AtomicLong();
+	private final AtomicInteger mRedirects = new AtomicInteger();
+	private final AtomicInteger mErrors = new AtomicInteger();
+	private final AtomicInteger mHeads = new AtomicInteger();
+	private final AtomicInteger mStalls = new AtomicInteger();
+
+	MockImageServer(Simulation.Config config) throws IOException {
+		mConfig = config;
+		mRandom = new Random(config.seed);
+		mImages = new byte[config.images][];
+		for (int i = 0; i < config.images; i++) {
+			mImages[i] = createImage(i, mRandom);
+		}
+		mFetches = new AtomicIntegerArray(config.images);
+		mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		HttpHandler handler = new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					serve(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		};
+		mServer.createContext("/img/", handler);
+		mServer.createContext("/cdn/", handler);
+		mServer.setExecutor(mExecutor);
+	}
+
+	void start() {
+		mServer.start();
+	}
+
+	void stop() {
+		mServer.stop(0);
+		mExecutor.shutdownNow();
+	}
+
+	String getUrl(int image) {
+		return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/img/" + image + ".png";
+	}
+
+	int getSize(int image) {
+		return mImages[image].length;
+	}
+
+	/**
+	 * @return how many times image was sent, in part or in full
+	 */
+	int getFetches(int image) {
+		return mFetches.get(image);
+	}
+
+	/**
+	 * @return the bytes of image bodies sent
+	 */
+	long getBytesSent() {
+		return mBytesSent.get();
+	}
+
+	int getRedirects() {
+		return mRedirects.get();
+	}
+
+	int getErrors() {
+		return mErrors.get();
+	}
+
+	int getHeads() {
+		return mHeads.get();
+	}
+
+	int getStalls() {
+		return mStalls.get();
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		drain(exchange.getRequestBody());
+		String path = exchange.getRequestURI().getPath();
+		int image;
+		try {
+			image = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1, path.lastIndexOf('.')));
+		} catch (RuntimeException e) {
+			image = -1;
+		}
+		if (image < 0 || image >= mImages.length) {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+		boolean head = "HEAD".equals(exchange.getRequestMethod());
+		sleep(latency());
+		if (path.startsWith("/img/") && redirects(image)) {
+			mRedirects.incrementAndGet();
+			exchange.getResponseHeaders().set("Location", "http://127.0.0.1:" + mServer.getAddress().getPort() + "/cdn/" + image + ".png");
+			exchange.sendResponseHeaders(302, -1);
+			return;
+		}
+		if (head) {
+			mHeads.incrementAndGet();
+			exchange.sendResponseHeaders(200, -1);
+			return;
+		}
+		if (fails()) {
+			mErrors.incrementAndGet();
+			exchange.sendResponseHeaders(503, -1);
+			return;
+		}
+		mFetches.incrementAndGet(image);
+		byte[] body = mImages[image];
+		exchange.getResponseHeaders().set("Content-Type", "image/png");
+		exchange.getResponseHeaders().set("Cache-Control", "max-age=86400");
+		exchange.sendResponseHeaders(200, body.length);
+		OutputStream out = exchange.getResponseBody();
+		boolean stalls = stalls();
+		if (stalls) {
+			mStalls.incrementAndGet();
+		}
+		try {
+			for (int offset = 0; offset < body.length; offset += CHUNK) {
+				int length = Math.min(CHUNK, body.length - offset);
+				out.write(body, offset, length);
+				out.flush();
+				mBytesSent.addAndGet(length);
+				if (stalls && offset >= body.length / 2) {
+					// a trickle that never quite stops
+					sleep(STALL_MILLIS);
+				} else if (mConfig.bytesPerSecond > 0) {
+					sleep(length * 1000L / mConfig.bytesPerSecond);
+				}
+			}
+		} catch (IOException e) {
+			// the client went away part way through
+		}
+	}
+
+	private synchronized long latency() {
+		return mConfig.latencyMillis + (mConfig.jitterMillis > 0 ? mRandom.nextInt(mConfig.jitterMillis + 1) : 0);
+	}
+
+	private synchronized boolean fails() {
+		return mRandom.nextDouble() < mConfig.errorRate;
+	}
+
+	private synchronized boolean stalls() {
+		return mRandom.nextDouble() < mConfig.stallRate;
+	}
+
+	/**
+	 * @return true if image always redirects, which is decided by the seed
+	 */
+	private boolean redirects(int image) {
+		// spread the seeds out, as the first values of close seeds are close
+		return new Random(mConfig.seed ^ (image * 0x9E3779B97F4A7C15L)).nextDouble() < mConfig.redirectRate;
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[1024];
+		while (in.read(buffer) != -1) {
+		}
+	}
+
+	private static void sleep(long millis) {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return a PNG of one of a few sizes in a colour of its own, padded with a
+	 *         text chunk to between 20KB and 120KB
+	 */
+	private static byte[] createImage(int image, Random random) throws IOException {
+		int[][] sizes = { { 320, 240 }, { 480, 480 }, { 640, 480 }, { 1024, 768 } };
+		int[] size = sizes[random.nextInt(sizes.length)];
+		BufferedImage bufferedImage = new BufferedImage(size[0], size[1], BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = bufferedImage.createGraphics();
+		graphics.setColor(new Color(random.nextInt(0xFFFFFF)));
+		graphics.fillRect(0, 0, size[0], size[1]);
+		graphics.setColor(Color.WHITE);
+		graphics.drawString(Integer.toString(image), 10, 20);
+		graphics.dispose();
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(bufferedImage, "png", png);
+		byte[] data = png.toByteArray();
+		int padding = Math.max(0, 20 * 1024 + random.nextInt(100 * 1024) - data.length);
+		return pad(data, padding);
+	}
+
+	/**
+	 * Adds a tEXt chunk of padding bytes before the IEND chunk.
+	 */
+	private static byte[] pad(byte[] png, int padding) {
+		byte[] keyword = "Comment\0".getBytes(StandardCharsets.ISO_8859_1);
+		int dataLength = keyword.length + padding;
+		ByteArrayOutputStream out = new ByteArrayOutputStream(png.length + dataLength + 12);
+		int iend = png.length - 12;
+		out.write(png, 0, iend);
+		byte[] chunk = new byte[4 + dataLength];
+		byte[] type = "tEXt".getBytes(StandardCharsets.ISO_8859_1);
+		System.arraycopy(type, 0, chunk, 0, 4);
+		System.arraycopy(keyword, 0, chunk, 4, keyword.length);
+		for (int i = 4 + keyword.length; i < chunk.length; i++) {
+			chunk[i] = 'x';
+		}
+		CRC32 crc = new CRC32();
+		crc.update(chunk);
+		writeInt(out, dataLength);
+		out.write(chunk, 0, chunk.length);
+		writeInt(out, (int) crc.getValue());
+		out.write(png, iend, 12);
+		return out.toByteArray();
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value) {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+}
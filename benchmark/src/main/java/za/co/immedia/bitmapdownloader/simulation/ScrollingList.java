@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader.simulation;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.content.Context;
+import android.widget.ImageView;
+
+/**
+ * A grid like the example's, which binds the positions that scroll into view
+ * to image views recycled from the positions that scroll out, as a GridView
+ * does. The scroll offset is measured in rows.
+ */
+class ScrollingList {
+
+	interface Binder {
+		public void bind(int position, ImageView view);
+	}
+
+	private final int mPositions;
+	private final int mColumns;
+	private final int mRows;
+	private final Binder mBinder;
+	private final TreeMap<Integer, ImageView> mBound = new TreeMap<Integer, ImageView>();
+	private final ArrayDeque<ImageView> mRecycled = new ArrayDeque<ImageView>();
+	private double mOffset = -1;
+
+	/**
+	 * @param rows
+	 *          how many rows fit on the screen
+	 */
+	ScrollingList(Context context, int positions, int columns, int rows, int cellSize, Binder binder) {
+		mPositions = positions;
+		mColumns = columns;
+		mRows = rows;
+		mBinder = binder;
+		// one row more than fits, for the rows that are partly visible
+		for (int i = 0; i < columns * (rows + 1); i++) {
+			ImageView view = new ImageView(context);
+			view.layout(0, 0, cellSize, cellSize);
+			mRecycled.add(view);
+		}
+	}
+
+	double getMaxOffset() {
+		return Math.max(0, Math.ceil((double) mPositions / mColumns) - mRows);
+	}
+
+	double getOffset() {
+		return mOffset;
+	}
+
+	/**
+	 * Scrolls to offset, binding the positions that come into view.
+	 * 
+	 * @return the offset scrolled to, which is kept within the list
+	 */
+	double scrollTo(double offset) {
+		offset = Math.max(0, Math.min(getMaxOffset(), offset));
+		mOffset = offset;
+		int firstRow = (int) Math.floor(offset);
+		int lastRow = (int) Math.ceil(offset + mRows) - 1;
+		int first = firstRow * mColumns;
+		int last = Math.min(mPositions - 1, (lastRow + 1) * mColumns - 1);
+		Iterator<Map.Entry<Integer, ImageView>> bound = mBound.entrySet().iterator();
+		while (bound.hasNext()) {
+			Map.Entry<Integer, ImageView> entry = bound.next();
+			if (entry.getKey() < first || entry.getKey() > last) {
+				mRecycled.add(entry.getValue());
+				bound.remove();
+			}
+		}
+		for (int position = first; position <= last; position++) {
+			if (!mBound.containsKey(position)) {
+				ImageView view = mRecycled.poll();
+				mBound.put(position, view);
+				mBinder.bind(position, view);
+			}
+		}
+		return offset;
+	}
+
+	/**
+	 * @return the positions in view and their views
+	 */
+	Map<Integer, ImageView> getBound() {
+		return mBound;
+	}
+}
@@ -0,0 +1,455 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader.simulation;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import za.co.immedia.bitmapdownloader.BitmapDownloader;
+import za.co.immedia.bitmapdownloader.BitmapDownloader.AnimateAppearance;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.widget.ImageView;
+
+/**
+ * Flings through a grid of images served by a {@link MockImageServer}, as a
+ * user would through the example's list, and reports what the pipeline did:
+ * the bytes fetched, duplicate fetches, bytes wasted on downloads that were
+ * thrown away, decodes and how long each position took to show its image.
+ * <p>
+ * Run it with
+ * <code>java -cp target/benchmarks.jar za.co.immedia.bitmapdownloader.simulation.Simulation [name=value...]</code>
+ * where the names are the fields of {@link Config}. It exits with 1 if a
+ * <code>max</code> limit is exceeded, so that it can gate a build.
+ * </p>
+ */
+public class Simulation {
+
+	private static final long FRAME_MILLIS = 16;
+	// how quickly a fling slows, in seconds
+	private static final double FLING_DECAY = 0.6;
+	// a fling stops below this many rows a second
+	private static final double FLING_STOP = 0.5;
+	// the network is idle once no bytes have been sent for this long
+	private static final long QUIET_MILLIS = 500;
+
+	/**
+	 * What to simulate. Each field can be set with a <code>name=value</code>
+	 * argument.
+	 */
+	public static class Config {
+		// the list
+		public int positions = 300;
+		// the share of positions that show an image shown elsewhere in the list
+		public double duplicateRate = 0.1;
+		public int columns = 3;
+		public int rows = 5;
+		public int cellSize = 240;
+		// the network
+		public int latencyMillis = 80;
+		public int jitterMillis = 120;
+		public int bytesPerSecond = 200000;
+		public double redirectRate = 0.1;
+		public double errorRate = 0.03;
+		// the share of responses that slow to a trickle half way through
+		public double stallRate = 0;
+		public long seed = 1;
+		// the user: flings in rows a second, negative to scroll back, with a rest
+		// before the first and after each
+		public String flings = "40,60,-50";
+		public int restMillis = 2000;
+		public boolean pauseOnFling = false;
+		// how often the adapter rebinds the rows in view to the same images, as
+		// notifyDataSetChanged does, 0 for never
+		public int rebindMillis = 0;
+		public int timeoutSeconds = 60;
+		// writes the time to visible of each position here when set
+		public String csv;
+		// limits, ignored when negative
+		public int maxDuplicateFetches = -1;
+		public long maxWastedBytes = -1;
+		public long maxP90Millis = -1;
+		// set from positions and duplicateRate
+		int images;
+		int[] imageOf;
+
+		void set(String argument) {
+			int equals = argument.indexOf('=');
+			if (equals == -1) {
+				throw new IllegalArgumentException("Expected name=value but got " + argument);
+			}
+			String name = argument.substring(0, equals);
+			String value = argument.substring(equals + 1);
+			try {
+				Field field = Config.class.getField(name);
+				Class<?> type = field.getType();
+				if (type == int.class) {
+					field.setInt(this, Integer.parseInt(value));
+				} else if (type == long.class) {
+					field.setLong(this, Long.parseLong(value));
+				} else if (type == double.class) {
+					field.setDouble(this, Double.parseDouble(value));
+				} else if (type == boolean.class) {
+					field.setBoolean(this, Boolean.parseBoolean(value));
+				} else {
+					field.set(this, value);
+				}
+			} catch (NoSuchFieldException e) {
+				throw new IllegalArgumentException("Unknown setting " + name);
+			} catch (IllegalAccessException e) {
+				throw new IllegalArgumentException("Cannot set " + name, e);
+			}
+		}
+
+		/**
+		 * Picks the image of each position, some of them repeating an earlier
+		 * one.
+		 */
+		void layOut() {
+			Random random = new Random(seed);
+			imageOf = new int[positions];
+			images = 0;
+			for (int position = 0; position < positions; position++) {
+				if (position > 0 && random.nextDouble() < duplicateRate) {
+					imageOf[position] = imageOf[random.nextInt(position)];
+				} else {
+					imageOf[position] = images++;
+				}
+			}
+		}
+
+		double[] getFlings() {
+			String[] parts = flings.split(",");
+			double[] velocities = new double[parts.length];
+			for (int i = 0; i < parts.length; i++) {
+				velocities[i] = Double.parseDouble(parts[i].trim());
+			}
+			return velocities;
+		}
+	}
+
+	private final Config mConfig;
+	private final MockImageServer mServer;
+	private final BitmapDownloader mDownloader;
+	private final EventCollector mCollector = new EventCollector();
+	private final ScrollingList mList;
+	private final Handler mHandler = new Handler();
+	private final double[] mFlings;
+	// positions shown when the list came to rest, which the user waited on
+	private final TreeSet<Integer> mRested = new TreeSet<Integer>();
+	private int mFling = -1;
+	private double mVelocity;
+	private long mLastFrame;
+	private long mQuietSince;
+	private long mLastBytesSent = -1;
+	private long mDeadline;
+	private int mRebinds;
+	// rebinds that changed what a view showed
+	private int mChangedRebinds;
+	private boolean mFinished;
+
+	Simulation(Config config, MockImageServer server, SimulationContext context) {
+		mConfig = config;
+		mServer = server;
+		mFlings = config.getFlings();
+		mDownloader = new BitmapDownloader();
+		mDownloader.setAnimateImageAppearance(AnimateAppearance.ANIMATE_NEVER);
+		mDownloader.setErrorDrawable(new ColorDrawable(Color.RED));
+		mDownloader.setEventListener(mCollector);
+		mList = new ScrollingList(context, config.positions, config.columns, config.rows, config.cellSize, new ScrollingList.Binder() {
+			@Override
+			public void bind(int position, ImageView view) {
+				mCollector.setBindingPosition(position);
+				mDownloader.download(mServer.getUrl(mConfig.imageOf[position]), view);
+			}
+		});
+	}
+
+	public static void main(String[] args) throws IOException {
+		Config config = new Config();
+		for (String argument : args) {
+			config.set(argument);
+		}
+		config.layOut();
+		File cacheDir = File.createTempFile("simulation", "");
+		cacheDir.delete();
+		cacheDir.mkdirs();
+		Looper.prepareMainLooper();
+		MockImageServer server = new MockImageServer(config);
+		server.start();
+		boolean passed;
+		try {
+			Simulation simulation = new Simulation(config, server, new SimulationContext(cacheDir));
+			simulation.start();
+			Looper.loop();
+			passed = simulation.report(System.out);
+		} finally {
+			server.stop();
+			delete(cacheDir);
+		}
+		System.exit(passed ? 0 : 1);
+	}
+
+	void start() {
+		mDeadline = SystemClock.uptimeMillis() + mConfig.timeoutSeconds * 1000L;
+		mList.scrollTo(0);
+		rest();
+		if (mConfig.rebindMillis > 0) {
+			rebind();
+		}
+	}
+
+	/**
+	 * Binds the positions in view again to the images they already have, until
+	 * the simulation finishes.
+	 */
+	private void rebind() {
+		mHandler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				if (mFinished) {
+					return;
+				}
+				// not requests for a new image, so not followed
+				mCollector.setBindingPosition(-1);
+				for (Map.Entry<Integer, ImageView> entry : mList.getBound().entrySet()) {
+					ImageView view = entry.getValue();
+					Drawable before = view.getDrawable();
+					mDownloader.download(mServer.getUrl(mConfig.imageOf[entry.getKey()]), view);
+					mRebinds++;
+					if (view.getDrawable() != before) {
+						mChangedRebinds++;
+					}
+				}
+				mHandler.postDelayed(this, mConfig.rebindMillis);
+			}
+		}, mConfig.rebindMillis);
+	}
+
+	/**
+	 * Lets the list sit where it is, then starts the next fling or settles.
+	 */
+	private void rest() {
+		mRested.addAll(mList.getBound().keySet());
+		mHandler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				mFling++;
+				if (mFling < mFlings.length) {
+					fling(mFlings[mFling]);
+				} else {
+					settle();
+				}
+			}
+		}, mConfig.restMillis);
+	}
+
+	private void fling(double velocity) {
+		mVelocity = velocity;
+		mLastFrame = SystemClock.uptimeMillis();
+		if (mConfig.pauseOnFling) {
+			mDownloader.pause();
+		}
+		mHandler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				long now = SystemClock.uptimeMillis();
+				double seconds = (now - mLastFrame) / 1000.0;
+				mLastFrame = now;
+				double wanted = mList.getOffset() + mVelocity * seconds;
+				double offset = mList.scrollTo(wanted);
+				mVelocity *= Math.exp(-seconds / FLING_DECAY);
+				if (Math.abs(mVelocity) < FLING_STOP || offset != wanted) {
+					if (mConfig.pauseOnFling) {
+						mDownloader.resume();
+					}
+					rest();
+				} else {
+					mHandler.postDelayed(this, FRAME_MILLIS);
+				}
+			}
+		}, FRAME_MILLIS);
+	}
+
+	/**
+	 * Waits for the visible positions to show an image and the network to go
+	 * quiet, or for the time out, then stops the main looper.
+	 */
+	private void settle() {
+		mHandler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				long now = SystemClock.uptimeMillis();
+				long bytesSent = mServer.getBytesSent();
+				if (bytesSent != mLastBytesSent) {
+					mLastBytesSent = bytesSent;
+					mQuietSince = now;
+				}
+				boolean shown = true;
+				for (ImageView view : mList.getBound().values()) {
+					shown &= view.getDrawable() != null;
+				}
+				if ((shown && now - mQuietSince >= QUIET_MILLIS) || now >= mDeadline) {
+					mFinished = true;
+					Looper.myLooper().quit();
+				} else {
+					mHandler.postDelayed(this, FRAME_MILLIS);
+				}
+			}
+		}, FRAME_MILLIS);
+	}
+
+	/**
+	 * @return false if a limit in the config was exceeded
+	 */
+	boolean report(PrintStream out) throws IOException {
+		int fetches = 0;
+		int fetched = 0;
+		long completedBytes = 0;
+		for (int image = 0; image < mConfig.images; image++) {
+			int imageFetches = mServer.getFetches(image);
+			fetches += imageFetches;
+			fetched += imageFetches > 0 ? 1 : 0;
+			completedBytes += (long) mServer.getSize(image) * mCollector.getCompleted(mServer.getUrl(image));
+		}
+		int duplicates = fetches - fetched;
+		// a body that did not complete was cut short or thrown away
+		long wasted = Math.max(0, mServer.getBytesSent() - completedBytes);
+
+		List<Long> times = new ArrayList<Long>();
+		int unseen = 0;
+		PrintWriter csv = mConfig.csv != null ? new PrintWriter(new FileWriter(mConfig.csv)) : null;
+		if (csv != null) {
+			csv.println("position,image,requests,rested,timeToVisibleMillis");
+		}
+		for (int position = 0; position < mConfig.positions; position++) {
+			List<EventCollector.Request> requests = mCollector.getRequests(position);
+			long millis = -1;
+			if (!requests.isEmpty()) {
+				// the last request is the one the user saw
+				EventCollector.Request last = requests.get(requests.size() - 1);
+				if (last.deliveredNanos != -1) {
+					millis = (last.deliveredNanos - last.requestedNanos) / 1000000;
+				}
+			}
+			boolean rested = mRested.contains(position);
+			if (rested) {
+				if (millis != -1) {
+					times.add(millis);
+				} else {
+					unseen++;
+				}
+			}
+			if (csv != null && !requests.isEmpty()) {
+				csv.println(position + "," + mConfig.imageOf[position] + "," + requests.size() + "," + rested + "," + millis);
+			}
+		}
+		if (csv != null) {
+			csv.close();
+		}
+		Collections.sort(times);
+
+		out.println("Positions bound:      " + countBound());
+		out.println("Images fetched:       " + fetched + " of " + mConfig.images);
+		out.println("Bytes fetched:        " + mServer.getBytesSent());
+		out.println("Duplicate fetches:    " + duplicates);
+		out.println("Wasted bytes:         " + wasted);
+		out.println("Decodes:              " + mCollector.getDecodes());
+		out.println("Cancellations:        " + mCollector.getCancellations());
+		out.println("Aborted downloads:    " + mCollector.getAborted());
+		out.println("Redirects:            " + mServer.getRedirects());
+		out.println("Server errors:        " + mServer.getErrors());
+		out.println("Stalled responses:    " + mServer.getStalls());
+		if (mRebinds > 0) {
+			out.println("Rebinds:              " + mRebinds + ", " + mChangedRebinds + " changed the image");
+		}
+		out.println("Time to visible (ms) for the " + (times.size() + unseen) + " positions shown at rest:");
+		out.println("  p50 " + percentile(times, 0.5) + ", p90 " + percentile(times, 0.9) + ", p99 " + percentile(times, 0.99) + ", max "
+				+ percentile(times, 1.0) + ", scrolled away before shown " + unseen);
+		out.println(mDownloader.getStats());
+
+		boolean passed = true;
+		passed &= check(out, "duplicate fetches", duplicates, mConfig.maxDuplicateFetches);
+		passed &= check(out, "wasted bytes", wasted, mConfig.maxWastedBytes);
+		passed &= check(out, "p90 time to visible", percentile(times, 0.9), mConfig.maxP90Millis);
+		if (mConfig.maxP90Millis >= 0 && unseen > 0) {
+			out.println("FAILED: " + unseen + " positions scrolled away before their image was shown");
+			passed = false;
+		}
+		return passed;
+	}
+
+	private int countBound() {
+		int bound = 0;
+		for (int position = 0; position < mConfig.positions; position++) {
+			bound += mCollector.getRequests(position).isEmpty() ? 0 : 1;
+		}
+		return bound;
+	}
+
+	private static boolean check(PrintStream out, String name, long value, long max) {
+		if (max >= 0 && value > max) {
+			out.println("FAILED: " + name + " " + value + " is over " + max);
+			return false;
+		}
+		return true;
+	}
+
+	private static long percentile(List<Long> sorted, double percentile) {
+		if (sorted.isEmpty()) {
+			return -1;
+		}
+		int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+		return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,44 @@
+package android.content;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+
+import android.content.res.Resources;
+
+public abstract class Context {
+	public static final int MODE_PRIVATE = 0;
+
+	public Context getApplicationContext() {
+		throw new RuntimeException("Stub!");
+	}
+
+	public File getCacheDir() {
+		throw new RuntimeException("Stub!");
+	}
+
+	public File getFilesDir() {
+		throw new RuntimeException("Stub!");
+	}
+
+	public FileInputStream openFileInput(String name) throws FileNotFoundException {
+		throw new RuntimeException("Stub!");
+	}
+
+	public FileOutputStream openFileOutput(String name, int mode) throws FileNotFoundException {
+		throw new RuntimeException("Stub!");
+	}
+
+	public File getFileStreamPath(String name) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public boolean deleteFile(String name) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public Resources getResources() {
+		throw new RuntimeException("Stub!");
+	}
+}
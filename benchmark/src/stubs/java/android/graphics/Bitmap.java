@@ -0,0 +1,73 @@
+package android.graphics;
+
+import java.io.OutputStream;
+
+/**
+ * Only holds a size, which is all the memory cache needs.
+ */
+public class Bitmap {
+	public static enum Config {
+		ALPHA_8, RGB_565, ARGB_4444, ARGB_8888
+	}
+
+	public static enum CompressFormat {
+		JPEG, PNG, WEBP
+	}
+
+	private final int mWidth;
+	private final int mHeight;
+	private final Config mConfig;
+
+	private Bitmap(int width, int height, Config config) {
+		mWidth = width;
+		mHeight = height;
+		mConfig = config;
+	}
+
+	public static Bitmap createBitmap(int width, int height, Config config) {
+		return new Bitmap(width, height, config);
+	}
+
+	public static Bitmap createBitmap(Bitmap source, int x, int y, int width, int height) {
+		return new Bitmap(width, height, source.mConfig);
+	}
+
+	public static Bitmap createBitmap(Bitmap source, int x, int y, int width, int height, Matrix m, boolean filter) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public static Bitmap createScaledBitmap(Bitmap source, int width, int height, boolean filter) {
+		return new Bitmap(width, height, source.mConfig);
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	public Config getConfig() {
+		return mConfig;
+	}
+
+	public int getRowBytes() {
+		return mWidth * (mConfig == Config.ARGB_8888 ? 4 : mConfig == Config.ALPHA_8 ? 1 : 2);
+	}
+
+	public int getByteCount() {
+		return getRowBytes() * mHeight;
+	}
+
+	public boolean hasAlpha() {
+		return mConfig != Config.RGB_565;
+	}
+
+	public boolean compress(CompressFormat format, int quality, OutputStream stream) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public void recycle() {
+	}
+}
@@ -0,0 +1,71 @@
+package android.graphics;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes with ImageIO, so decoding takes about as long as it would for real,
+ * and keeps only the size of the result.
+ */
+public class BitmapFactory {
+	public static class Options {
+		public boolean inJustDecodeBounds;
+		public int inSampleSize;
+		public int outWidth;
+		public int outHeight;
+		public Bitmap.Config inPreferredConfig;
+	}
+
+	public static Bitmap decodeFileDescriptor(FileDescriptor fd, Rect outPadding, Options opts) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public static Bitmap decodeByteArray(byte[] data, int offset, int length, Options opts) {
+		try {
+			ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(data, offset, length));
+			try {
+				Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+				if (!readers.hasNext()) {
+					setOutSize(opts, -1, -1);
+					return null;
+				}
+				ImageReader reader = readers.next();
+				try {
+					reader.setInput(input);
+					setOutSize(opts, reader.getWidth(0), reader.getHeight(0));
+					if (opts != null && opts.inJustDecodeBounds) {
+						return null;
+					}
+					ImageReadParam param = reader.getDefaultReadParam();
+					int sampleSize = opts != null ? Math.max(1, opts.inSampleSize) : 1;
+					param.setSourceSubsampling(sampleSize, sampleSize, 0, 0);
+					BufferedImage image = reader.read(0, param);
+					return Bitmap.createBitmap(image.getWidth(), image.getHeight(), image.getColorModel().hasAlpha() ? Bitmap.Config.ARGB_8888
+							: Bitmap.Config.RGB_565);
+				} finally {
+					reader.dispose();
+				}
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			setOutSize(opts, -1, -1);
+			return null;
+		}
+	}
+
+	private static void setOutSize(Options opts, int width, int height) {
+		if (opts != null) {
+			opts.outWidth = width;
+			opts.outHeight = height;
+		}
+	}
+}
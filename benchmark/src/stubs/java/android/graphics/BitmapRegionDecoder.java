@@ -0,0 +1,17 @@
+package android.graphics;
+
+import java.io.IOException;
+
+public final class BitmapRegionDecoder {
+	public static BitmapRegionDecoder newInstance(byte[] data, int offset, int length, boolean isShareable) throws IOException {
+		throw new RuntimeException("Stub!");
+	}
+
+	public Bitmap decodeRegion(Rect rect, BitmapFactory.Options options) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public void recycle() {
+		throw new RuntimeException("Stub!");
+	}
+}
@@ -0,0 +1,7 @@
+package android.graphics;
+
+public class BitmapShader extends Shader {
+	public BitmapShader(Bitmap bitmap, TileMode tileX, TileMode tileY) {
+		throw new RuntimeException("Stub!");
+	}
+}
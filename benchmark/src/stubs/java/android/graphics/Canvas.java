@@ -0,0 +1,11 @@
+package android.graphics;
+
+public class Canvas {
+	public Canvas(Bitmap bitmap) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public void drawRoundRect(RectF rect, float rx, float ry, Paint paint) {
+		throw new RuntimeException("Stub!");
+	}
+}
@@ -0,0 +1,6 @@
+package android.graphics;
+
+public class Color {
+	public static final int TRANSPARENT = 0;
+	public static final int RED = 0xFFFF0000;
+}
@@ -0,0 +1,7 @@
+package android.graphics;
+
+public class Matrix {
+	public void setScale(float sx, float sy) {
+		throw new RuntimeException("Stub!");
+	}
+}
@@ -0,0 +1,13 @@
+package android.graphics;
+
+public class Paint {
+	public static final int ANTI_ALIAS_FLAG = 1;
+
+	public Paint(int flags) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public Shader setShader(Shader shader) {
+		throw new RuntimeException("Stub!");
+	}
+}
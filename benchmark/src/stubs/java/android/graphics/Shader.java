@@ -0,0 +1,7 @@
+package android.graphics;
+
+public class Shader {
+	public static enum TileMode {
+		CLAMP, REPEAT, MIRROR
+	}
+}
@@ -0,0 +1,38 @@
+package android.graphics.drawable;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+
+public class BitmapDrawable extends Drawable {
+	private final Bitmap mBitmap;
+
+	public BitmapDrawable(Resources res, Bitmap bitmap) {
+		mBitmap = bitmap;
+	}
+
+	public final Bitmap getBitmap() {
+		return mBitmap;
+	}
+
+	@Override
+	public void draw(Canvas canvas) {
+		throw new RuntimeException("Stub!");
+	}
+
+	@Override
+	public void setAlpha(int alpha) {
+		throw new RuntimeException("Stub!");
+	}
+
+	@Override
+	public void setColorFilter(ColorFilter cf) {
+		throw new RuntimeException("Stub!");
+	}
+
+	@Override
+	public int getOpacity() {
+		throw new RuntimeException("Stub!");
+	}
+}
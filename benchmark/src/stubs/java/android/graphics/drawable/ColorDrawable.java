@@ -0,0 +1,36 @@
+package android.graphics.drawable;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+
+public class ColorDrawable extends Drawable {
+	private final int mColor;
+
+	public ColorDrawable(int color) {
+		mColor = color;
+	}
+
+	public int getColor() {
+		return mColor;
+	}
+
+	@Override
+	public void draw(Canvas canvas) {
+		throw new RuntimeException("Stub!");
+	}
+
+	@Override
+	public void setAlpha(int alpha) {
+		throw new RuntimeException("Stub!");
+	}
+
+	@Override
+	public void setColorFilter(ColorFilter cf) {
+		throw new RuntimeException("Stub!");
+	}
+
+	@Override
+	public int getOpacity() {
+		throw new RuntimeException("Stub!");
+	}
+}
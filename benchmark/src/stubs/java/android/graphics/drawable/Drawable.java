@@ -0,0 +1,43 @@
+package android.graphics.drawable;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Rect;
+
+public abstract class Drawable {
+	public static interface Callback {
+		public void invalidateDrawable(Drawable who);
+
+		public void scheduleDrawable(Drawable who, Runnable what, long when);
+
+		public void unscheduleDrawable(Drawable who, Runnable what);
+	}
+
+	public abstract void draw(Canvas canvas);
+
+	public abstract void setAlpha(int alpha);
+
+	public abstract void setColorFilter(ColorFilter cf);
+
+	public abstract int getOpacity();
+
+	public Callback getCallback() {
+		throw new RuntimeException("Stub!");
+	}
+
+	public void setCallback(Callback callback) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public void invalidateSelf() {
+		throw new RuntimeException("Stub!");
+	}
+
+	public final Rect getBounds() {
+		throw new RuntimeException("Stub!");
+	}
+
+	public void setBounds(Rect bounds) {
+		throw new RuntimeException("Stub!");
+	}
+}
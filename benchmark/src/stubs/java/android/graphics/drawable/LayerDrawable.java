@@ -0,0 +1,57 @@
+package android.graphics.drawable;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+
+public class LayerDrawable extends Drawable implements Drawable.Callback {
+	public LayerDrawable(Drawable[] layers) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public Drawable getDrawable(int index) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public void setId(int index, int id) {
+		throw new RuntimeException("Stub!");
+	}
+
+	public boolean setDrawableByLayerId(int id, Drawable drawable) {
+		throw new RuntimeException("Stub!");
+	}
+
+	@Override
+	public void draw(Canvas canvas) {
+		throw new RuntimeException("Stub!");
+	}
+
+	@Override
+	public void setAlpha(int alpha) {
+		throw new RuntimeException("Stub!");
+	}
+
+	@Override
+	public void setColorFilter(ColorFilter cf) {
+		throw new RuntimeException("Stub!");
+	}
+
+	@Override
+	public int getOpacity() {
+		throw new RuntimeException("Stub!");
+	}
+
+	@Override
+	public void invalidateDrawable(Drawable who) {
+		throw new RuntimeException("Stub!");
+	}
+
+	@Override
+	public void scheduleDrawable(Drawable who, Runnable what, long when) {
+		throw new RuntimeException("Stub!");
+	}
+
+	@Override
+	public void unscheduleDrawable(Drawable who, Runnable what) {
+		throw new RuntimeException("Stub!");
+	}
+}
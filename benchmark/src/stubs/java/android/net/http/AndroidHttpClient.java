@@ -0,0 +1,61 @@
+package android.net.http;
+
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+
+/**
+ * A {@link DefaultHttpClient} set up the way the device's client is: it shares
+ * a thread safe connection manager, does not follow redirects and times out
+ * after 60 seconds.
+ */
+public final class AndroidHttpClient {
+
+	private static final int SOCKET_OPERATION_TIMEOUT = 60 * 1000;
+
+	private final DefaultHttpClient mDelegate;
+
+	private AndroidHttpClient(DefaultHttpClient delegate) {
+		mDelegate = delegate;
+	}
+
+	public static AndroidHttpClient newInstance(String userAgent) {
+		HttpParams params = new BasicHttpParams();
+		HttpConnectionParams.setStaleCheckingEnabled(params, false);
+		HttpConnectionParams.setConnectionTimeout(params, SOCKET_OPERATION_TIMEOUT);
+		HttpConnectionParams.setSoTimeout(params, SOCKET_OPERATION_TIMEOUT);
+		HttpConnectionParams.setSocketBufferSize(params, 8192);
+		HttpClientParams.setRedirecting(params, false);
+		HttpProtocolParams.setUserAgent(params, userAgent);
+		SchemeRegistry schemeRegistry = new SchemeRegistry();
+		schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+		ClientConnectionManager manager = new ThreadSafeClientConnManager(params, schemeRegistry);
+		return new AndroidHttpClient(new DefaultHttpClient(manager, params));
+	}
+
+	public HttpParams getParams() {
+		return mDelegate.getParams();
+	}
+
+	public HttpResponse execute(HttpUriRequest request) throws IOException {
+		return mDelegate.execute(request);
+	}
+
+	public void close() {
+		mDelegate.getConnectionManager().shutdown();
+	}
+}
@@ -0,0 +1,95 @@
+package android.os;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs doInBackground() on an executor and the callbacks on the main thread.
+ * As on a device, onCancelled() is only called once doInBackground() returns.
+ */
+public abstract class AsyncTask<Params, Progress, Result> {
+
+	public static final Executor SERIAL_EXECUTOR = Executors.newSingleThreadExecutor(daemonThreads());
+	public static final Executor THREAD_POOL_EXECUTOR = Executors.newCachedThreadPool(daemonThreads());
+
+	private volatile boolean mCancelled;
+	private volatile Thread mThread;
+	private boolean mStarted;
+
+	private static ThreadFactory daemonThreads() {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "AsyncTask");
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	protected abstract Result doInBackground(Params... params);
+
+	protected void onPostExecute(Result result) {
+	}
+
+	protected void onCancelled(Result result) {
+		onCancelled();
+	}
+
+	protected void onCancelled() {
+	}
+
+	public final boolean isCancelled() {
+		return mCancelled;
+	}
+
+	public final boolean cancel(boolean mayInterruptIfRunning) {
+		mCancelled = true;
+		Thread thread = mThread;
+		if (mayInterruptIfRunning && thread != null) {
+			thread.interrupt();
+		}
+		return true;
+	}
+
+	public final AsyncTask<Params, Progress, Result> execute(Params... params) {
+		return executeOnExecutor(SERIAL_EXECUTOR, params);
+	}
+
+	public final AsyncTask<Params, Progress, Result> executeOnExecutor(Executor exec, final Params... params) {
+		if (mStarted) {
+			throw new IllegalStateException("Cannot execute task: the task has already been executed");
+		}
+		mStarted = true;
+		final Handler handler = new Handler(Looper.getMainLooper());
+		exec.execute(new Runnable() {
+			@Override
+			public void run() {
+				mThread = Thread.currentThread();
+				Result result = null;
+				try {
+					if (!mCancelled) {
+						result = doInBackground(params);
+					}
+				} finally {
+					mThread = null;
+					// do not leave an interrupt for the next task on this thread
+					Thread.interrupted();
+				}
+				final Result done = result;
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (mCancelled) {
+							onCancelled(done);
+						} else {
+							onPostExecute(done);
+						}
+					}
+				});
+			}
+		});
+		return this;
+	}
+}
@@ -0,0 +1,15 @@
+package android.os;
+
+public class Build {
+	public static class VERSION {
+		public static final int SDK_INT = 18;
+	}
+
+	public static class VERSION_CODES {
+		public static final int GINGERBREAD_MR1 = 10;
+		public static final int HONEYCOMB = 11;
+		public static final int HONEYCOMB_MR1 = 12;
+		public static final int JELLY_BEAN = 16;
+		public static final int JELLY_BEAN_MR2 = 18;
+	}
+}
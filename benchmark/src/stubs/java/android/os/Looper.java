@@ -0,0 +1,63 @@
+package android.os;
+
+/**
+ * Runs the runnables posted to a thread's {@link Handler}s, one at a time.
+ */
+public final class Looper {
+
+	private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<Looper>();
+	private static Looper sMainLooper;
+
+	final MessageQueue mQueue = new MessageQueue();
+	private final Thread mThread = Thread.currentThread();
+
+	private Looper() {
+	}
+
+	public static void prepare() {
+		if (sThreadLocal.get() != null) {
+			throw new RuntimeException("Only one Looper may be created per thread");
+		}
+		sThreadLocal.set(new Looper());
+	}
+
+	public static void prepareMainLooper() {
+		prepare();
+		synchronized (Looper.class) {
+			if (sMainLooper != null) {
+				throw new IllegalStateException("The main Looper has already been prepared.");
+			}
+			sMainLooper = myLooper();
+		}
+	}
+
+	public static synchronized Looper getMainLooper() {
+		return sMainLooper;
+	}
+
+	public static Looper myLooper() {
+		return sThreadLocal.get();
+	}
+
+	/**
+	 * Runs the queue of this thread's looper until {@link #quit()} is called.
+	 */
+	public static void loop() {
+		Looper looper = myLooper();
+		if (looper == null) {
+			throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+		}
+		Runnable runnable;
+		while ((runnable = looper.mQueue.next()) != null) {
+			runnable.run();
+		}
+	}
+
+	public void quit() {
+		mQueue.quit();
+	}
+
+	public Thread getThread() {
+		return mThread;
+	}
+}
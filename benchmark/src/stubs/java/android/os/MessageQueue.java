@@ -0,0 +1,79 @@
+package android.os;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * The runnables posted to a {@link Looper}, in the order they are due.
+ */
+final class MessageQueue {
+
+	private static class Entry implements Comparable<Entry> {
+		final Runnable runnable;
+		final long when;
+		final long sequence;
+
+		Entry(Runnable runnable, long when, long sequence) {
+			this.runnable = runnable;
+			this.when = when;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			if (when != other.when) {
+				return when < other.when ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+
+	private final PriorityQueue<Entry> mQueue = new PriorityQueue<Entry>();
+	private long mSequence;
+	private boolean mQuitting;
+
+	synchronized void enqueue(Runnable runnable, long uptimeMillis) {
+		mQueue.add(new Entry(runnable, uptimeMillis, mSequence++));
+		notifyAll();
+	}
+
+	synchronized void remove(Runnable runnable) {
+		Iterator<Entry> entries = mQueue.iterator();
+		while (entries.hasNext()) {
+			if (entries.next().runnable == runnable) {
+				entries.remove();
+			}
+		}
+	}
+
+	synchronized void quit() {
+		mQuitting = true;
+		notifyAll();
+	}
+
+	/**
+	 * @return the next runnable once it is due, or null once the queue has quit
+	 */
+	synchronized Runnable next() {
+		while (true) {
+			if (mQuitting) {
+				return null;
+			}
+			Entry first = mQueue.peek();
+			long now = SystemClock.uptimeMillis();
+			if (first != null && first.when <= now) {
+				return mQueue.poll().runnable;
+			}
+			try {
+				if (first == null) {
+					wait();
+				} else {
+					wait(first.when - now);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package android.os;
+
+public class Process {
+	public static final int THREAD_PRIORITY_DEFAULT = 0;
+	public static final int THREAD_PRIORITY_BACKGROUND = 10;
+	public static final int THREAD_PRIORITY_LOWEST = 19;
+
+	public static final void setThreadPriority(int priority) {
+	}
+}
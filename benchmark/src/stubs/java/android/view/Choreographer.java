@@ -0,0 +1,44 @@
+package android.view;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Calls frame callbacks at the next 16ms boundary, on the looper of the thread
+ * that got the instance.
+ */
+public final class Choreographer {
+
+	private static final long FRAME_MILLIS = 16;
+
+	private static final ThreadLocal<Choreographer> sThreadInstance = new ThreadLocal<Choreographer>() {
+		@Override
+		protected Choreographer initialValue() {
+			return new Choreographer(Looper.myLooper());
+		}
+	};
+
+	public static interface FrameCallback {
+		public void doFrame(long frameTimeNanos);
+	}
+
+	private final Handler mHandler;
+
+	private Choreographer(Looper looper) {
+		mHandler = new Handler(looper);
+	}
+
+	public static Choreographer getInstance() {
+		return sThreadInstance.get();
+	}
+
+	public void postFrameCallback(final FrameCallback callback) {
+		mHandler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				callback.doFrame(System.nanoTime());
+			}
+		}, FRAME_MILLIS - SystemClock.uptimeMillis() % FRAME_MILLIS);
+	}
+}
@@ -0,0 +1,89 @@
+package android.view;
+
+import java.util.HashMap;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.os.IBinder;
+
+/**
+ * Keeps the state the library reads and writes: tags, size and padding. It is
+ * never attached to a window.
+ */
+public class View {
+
+	private final Context mContext;
+	private final HashMap<Integer, Object> mKeyedTags = new HashMap<Integer, Object>();
+	private int mLeft;
+	private int mTop;
+	private int mRight;
+	private int mBottom;
+	private ViewGroup.LayoutParams mLayoutParams;
+
+	public View(Context context) {
+		mContext = context;
+	}
+
+	public Context getContext() {
+		return mContext;
+	}
+
+	public Resources getResources() {
+		return mContext.getResources();
+	}
+
+	public Object getTag(int key) {
+		return mKeyedTags.get(key);
+	}
+
+	public void setTag(int key, Object tag) {
+		mKeyedTags.put(key, tag);
+	}
+
+	public void layout(int l, int t, int r, int b) {
+		mLeft = l;
+		mTop = t;
+		mRight = r;
+		mBottom = b;
+	}
+
+	public int getWidth() {
+		return mRight - mLeft;
+	}
+
+	public int getHeight() {
+		return mBottom - mTop;
+	}
+
+	public int getPaddingLeft() {
+		return 0;
+	}
+
+	public int getPaddingRight() {
+		return 0;
+	}
+
+	public int getPaddingTop() {
+		return 0;
+	}
+
+	public int getPaddingBottom() {
+		return 0;
+	}
+
+	public ViewGroup.LayoutParams getLayoutParams() {
+		return mLayoutParams;
+	}
+
+	public void setLayoutParams(ViewGroup.LayoutParams params) {
+		mLayoutParams = params;
+	}
+
+	public boolean isShown() {
+		return false;
+	}
+
+	public IBinder getWindowToken() {
+		return null;
+	}
+}
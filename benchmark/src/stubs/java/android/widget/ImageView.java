@@ -0,0 +1,29 @@
+package android.widget;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.view.View;
+
+public class ImageView extends View {
+
+	private Drawable mDrawable;
+	private int mResource;
+
+	public ImageView(Context context) {
+		super(context);
+	}
+
+	public void setImageDrawable(Drawable drawable) {
+		mDrawable = drawable;
+		mResource = 0;
+	}
+
+	public Drawable getDrawable() {
+		return mDrawable;
+	}
+
+	public void setImageResource(int resId) {
+		mDrawable = null;
+		mResource = resId;
+	}
+}
@@ -0,0 +1,11 @@
+package za.co.immedia.bitmapdownloader;
+
+/**
+ * Stands in for the class the Android build generates from res/values/ids.xml.
+ */
+public final class R {
+	public static final class id {
+		public static final int bmd__image_downloader = 0x7f050000;
+		public static final int bmd__bound_request = 0x7f050001;
+	}
+}
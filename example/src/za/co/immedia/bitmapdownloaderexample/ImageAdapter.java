@@ -9,7 +9,7 @@ import za.co.immedia.bitmapdownloader.BitmapDownloader;
 
 public class ImageAdapter extends BaseAdapter {
 
-	BitmapDownloader mDownloader = new BitmapDownloader(5);
+	BitmapDownloader mDownloader = new BitmapDownloader();
 
 	private static final String[] URLS = {
 			"http://lh3.googleusercontent.com/-SJHKAxJJdPE/SzR94FrCFrI/AAAAAAAAAH4/25qv_gub0h8/s144/puppy-and-kitten.jpg",
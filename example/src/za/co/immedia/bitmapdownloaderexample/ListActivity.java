@@ -3,16 +3,27 @@ package za.co.immedia.bitmapdownloaderexample;
 import android.app.Activity;
 import android.os.Bundle;
 import android.widget.GridView;
+import za.co.immedia.bitmapdownloader.PauseOnScrollListener;
 
 public class ListActivity extends Activity {
 
+	private ImageAdapter mImageAdapter;
+
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_list);
 
 		GridView listView = (GridView) findViewById(R.id.listView);
-		ImageAdapter imageAdapter = new ImageAdapter();
-		listView.setAdapter(imageAdapter);
+		mImageAdapter = new ImageAdapter();
+		mImageAdapter.mDownloader.warmUp(this);
+		listView.setAdapter(mImageAdapter);
+		listView.setOnScrollListener(new PauseOnScrollListener(mImageAdapter.mDownloader));
+	}
+
+	@Override
+	protected void onStop() {
+		super.onStop();
+		mImageAdapter.mDownloader.saveWarmUpList(this);
 	}
 }
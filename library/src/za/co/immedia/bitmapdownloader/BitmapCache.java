@@ -27,6 +27,12 @@
 
 package za.co.immedia.bitmapdownloader;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
 import android.annotation.SuppressLint;
 import android.graphics.Bitmap;
 import android.os.Build;
@@ -37,7 +43,33 @@ import android.support.v4.util.LruCache;
  *
  */
 public class BitmapCache {
+	// bitmaps are cached by content key and decode size, so URLs that serve the
+	// same image at the same size share one bitmap
 	private LruCache<String, Bitmap> mBitmapCache;
+	// the content key each URL was last loaded as
+	private final LruCache<String, String> mContentKeys = new LruCache<String, String>(1024);
+	// how often, and at what size, each bitmap in the cache has been used
+	private final HashMap<String, Usage> mUsage = new HashMap<String, Usage>();
+
+	/**
+	 * How often a cached bitmap has been used, and the size it was decoded for.
+	 */
+	static class Usage {
+		// one of the URLs the bitmap was loaded from, before transformations
+		final String url;
+		// the key of the transformations applied to it, or null if there are none
+		final String transformationKey;
+		final int width;
+		final int height;
+		int hits;
+
+		Usage(String url, String transformationKey, int width, int height) {
+			this.url = url;
+			this.transformationKey = transformationKey;
+			this.width = width;
+			this.height = height;
+		}
+	}
 
 	// static private final String TAG = BitmapCache.class.getCanonicalName();
 	public BitmapCache() {
@@ -54,17 +86,93 @@ public class BitmapCache {
 				}
 				return byteCount;
 			}
+
+			@Override
+			protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+				if (newValue == null) {
+					synchronized (mUsage) {
+						mUsage.remove(key);
+					}
+				}
+			}
 		};
 	}
 
 	public void addBitmap(String url, Bitmap b) {
-		mBitmapCache.put(url, b);
+		addBitmap(url, null, url, b, BitmapLoaderTask.MAX_WIDTH, BitmapLoaderTask.MAX_HEIGHT);
+	}
+
+	/**
+	 * @param transformationKey
+	 *          the key of the transformations applied to the image loaded from
+	 *          url, or null if there are none
+	 */
+	void addBitmap(String url, String transformationKey, String contentKey, Bitmap b, int width, int height) {
+		mContentKeys.put(transformationKey != null ? url + transformationKey : url, contentKey);
+		synchronized (mUsage) {
+			if (!mUsage.containsKey(contentKey)) {
+				mUsage.put(contentKey, new Usage(url, transformationKey, width, height));
+			}
+		}
+		mBitmapCache.put(contentKey, b);
 	}
 
 	public Bitmap getBitmap(String url) {
 		if (url == null) {
 			return null;
 		}
-		return mBitmapCache.get(url);
+		String contentKey = mContentKeys.get(url);
+		return contentKey != null ? getContent(contentKey) : null;
+	}
+
+	/**
+	 * @return the bitmap for contentKey, which may have been loaded from a
+	 *         different URL, or null if it is not cached
+	 */
+	Bitmap getContent(String contentKey) {
+		Bitmap bitmap = mBitmapCache.get(contentKey);
+		if (bitmap != null) {
+			synchronized (mUsage) {
+				Usage usage = mUsage.get(contentKey);
+				if (usage != null) {
+					usage.hits++;
+				}
+			}
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Checks for a bitmap without counting it as a use.
+	 */
+	boolean containsContent(String contentKey) {
+		synchronized (mUsage) {
+			return mUsage.containsKey(contentKey);
+		}
+	}
+
+	int size() {
+		return mBitmapCache.size();
+	}
+
+	int maxSize() {
+		return mBitmapCache.maxSize();
+	}
+
+	/**
+	 * @return up to count of the cached bitmaps, most used first
+	 */
+	List<Usage> getMostUsed(int count) {
+		ArrayList<Usage> usages;
+		synchronized (mUsage) {
+			usages = new ArrayList<Usage>(mUsage.values());
+		}
+		Collections.sort(usages, new Comparator<Usage>() {
+			@Override
+			public int compare(Usage lhs, Usage rhs) {
+				return rhs.hits < lhs.hits ? -1 : (rhs.hits == lhs.hits ? 0 : 1);
+			}
+		});
+		return usages.subList(0, Math.min(count, usages.size()));
 	}
 }
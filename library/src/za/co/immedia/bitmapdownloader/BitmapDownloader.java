@@ -28,33 +28,45 @@
 package za.co.immedia.bitmapdownloader;
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.RejectedExecutionException;
 
-import za.co.immedia.bitmapdownloader.BitmapTransitionDrawable.BitmapTransitionCallback;
 import android.annotation.SuppressLint;
+import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.Build;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.ViewGroup;
 import android.widget.ImageView;
 
+/**
+ * Loads images into image views. The caches, the download queue and the
+ * network threads belong to a {@link BitmapEngine} shared by the whole process,
+ * so a downloader is cheap to create and only holds what is particular to one
+ * screen: its drawables, animation settings and callback.
+ * <p>
+ * Images can be requested from any thread. The memory cache is checked on the
+ * calling thread, and everything that touches the view happens on the main
+ * thread.
+ * </p>
+ */
 public class BitmapDownloader {
 
 	private static final String TAG = BitmapDownloader.class.getCanonicalName();
 
 	public static final int DOWNLOAD_TAG = R.id.bmd__image_downloader;
+	// the request whose image a view is showing
+	static final int BOUND_TAG = R.id.bmd__bound_request;
 
-	private final BitmapCache mBitmapCache = new BitmapCache();
-	private ArrayList<Download> mQueuedDownloads;
-	private ArrayList<Download> mRunningDownloads;
-	private HashMap<String, ArrayList<Download>> mDuplicateDownloads;
-	private int mMaxDownloads;
+	private final BitmapEngine mEngine = BitmapEngine.getInstance();
+	private final BitmapCache mBitmapCache = mEngine.getBitmapCache();
+	private final DownloadScheduler mScheduler = mEngine.getScheduler();
+	private final TransitionAnimator mTransitionAnimator = new TransitionAnimator(mEngine.getFrameBatcher());
 	private Drawable mErrorDrawable;
 	private Drawable mInProgressDrawable;
 	private int mErrorDrawableResource;
@@ -62,28 +74,123 @@ public class BitmapDownloader {
 	private boolean mAnimateImageAppearance = false;
 	private boolean mAnimateImageAppearanceAfterDownload = true;
 	private BitmapLoaderCallback mCallback;
+	private volatile CachePolicy mCachePolicy = CachePolicy.DEFAULT;
+	private int mWarmUpSize = 20;
+	private volatile KeyNormalizer mKeyNormalizer = new DefaultKeyNormalizer();
+	private volatile boolean mStoreTransformed;
+	private volatile UrlRewriter mUrlRewriter;
+	private volatile EventListener mEventListener;
+	private volatile RetryPolicy mRetryPolicy = RetryPolicy.DEFAULT;
+	private volatile TimeoutPolicy mTimeoutPolicy = TimeoutPolicy.DEFAULT;
+	// only touched on the main thread
+	private boolean mPaused;
+	private Stats.StatsListener mStatsListener;
+	private long mStatsInterval;
+	// changes whenever the listener is set, so that reports for an old listener
+	// stop
+	private int mStatsGeneration;
 
 	public static enum AnimateAppearance {
 		ANIMATE_ALWAYS, ANIMATE_AFTER_DOWNLOAD, ANIMATE_NEVER
 	}
 
+	/**
+	 * The image a view was given, and the request it was given for.
+	 */
+	private static final class BoundRequest {
+		final String cacheKey;
+		final int reqWidth;
+		final int reqHeight;
+		final Drawable drawable;
+
+		BoundRequest(String cacheKey, int reqWidth, int reqHeight, Drawable drawable) {
+			this.cacheKey = cacheKey;
+			this.reqWidth = reqWidth;
+			this.reqHeight = reqHeight;
+			this.drawable = drawable;
+		}
+
+		/**
+		 * @return true if imageView still shows the image, or is fading it in
+		 */
+		boolean isShownBy(ImageView imageView) {
+			Drawable shown = imageView.getDrawable();
+			return shown == drawable || (shown instanceof BitmapTransitionDrawable && ((BitmapTransitionDrawable) shown).getDrawable(1) == drawable);
+		}
+	}
+
 	public static interface BitmapLoaderCallback {
 		public void onLoaded(ImageView view);
 	}
 
 	public BitmapDownloader() {
-		setup(5);
 	}
 
+	/**
+	 * @param maxDownloads
+	 *          ignored, as downloads are shared by every downloader in the process
+	 * @deprecated Use {@link #BitmapDownloader()}, and
+	 *             {@link #setMaxDownloads(int)} to change the limit for the
+	 *             whole process.
+	 */
+	@Deprecated
 	public BitmapDownloader(int maxDownloads) {
-		setup(maxDownloads);
 	}
 
-	private void setup(int maxDownloads) {
-		mQueuedDownloads = new ArrayList<Download>();
-		mRunningDownloads = new ArrayList<Download>();
-		mMaxDownloads = maxDownloads;
-		mDuplicateDownloads = new HashMap<String, ArrayList<Download>>();
+	/**
+	 * Sets how many downloads may run at once, and stops the limit adapting to
+	 * the network. The default is 5. Downloads are shared by every downloader
+	 * in the process, so this applies to all of them.
+	 */
+	public void setMaxDownloads(int maxDownloads) {
+		mEngine.getConcurrencyController().setFixed(maxDownloads);
+	}
+
+	/**
+	 * Sets how many downloads from one host may run at once, so that a slow host
+	 * cannot take every download slot. The default is
+	 * {@value DownloadScheduler#DEFAULT_MAX_RUNNING_PER_HOST}. Like the overall
+	 * limit, this applies to every downloader in the process.
+	 */
+	public void setMaxDownloadsPerHost(int maxDownloads) {
+		mScheduler.setMaxRunningPerHost(maxDownloads);
+	}
+
+	/**
+	 * Sets how many downloads from host may run at once, overriding
+	 * {@link #setMaxDownloadsPerHost(int)}.
+	 */
+	public void setMaxDownloadsPerHost(String host, int maxDownloads) {
+		mScheduler.setMaxRunningPerHost(host.toLowerCase(Locale.US), maxDownloads);
+	}
+
+	/**
+	 * Lets the number of downloads that may run at once adapt to the network,
+	 * between minDownloads and maxDownloads. Like the fixed limit, this applies
+	 * to every downloader in the process.
+	 * 
+	 * @see ConcurrencyController
+	 */
+	public void setAdaptiveDownloads(int minDownloads, int maxDownloads) {
+		mEngine.getConcurrencyController().setAdaptive(minDownloads, maxDownloads);
+	}
+
+	/**
+	 * Sets how many times in a row a host may fail, with timeouts, dropped
+	 * connections or 5xx responses, before requests for it fail straight away
+	 * for openMillis. The default is {@value CircuitBreaker#DEFAULT_THRESHOLD}
+	 * failures and 30 seconds, and a threshold of 0 turns it off. Like the
+	 * download limits, this applies to every downloader in the process.
+	 */
+	public void setCircuitBreaker(int threshold, long openMillis) {
+		mEngine.getCircuitBreaker().setThreshold(threshold, openMillis);
+	}
+
+	/**
+	 * @return the controller of how many downloads run at once, for diagnostics
+	 */
+	public ConcurrencyController getConcurrencyController() {
+		return mEngine.getConcurrencyController();
 	}
 
 	public void setErrorDrawable(Drawable errorDrawable) {
@@ -133,35 +240,433 @@ public class BitmapDownloader {
 		mCallback = callback;
 	}
 
+	/**
+	 * Sets the {@link CachePolicy} used by requests that do not specify their
+	 * own.
+	 */
+	public void setCachePolicy(CachePolicy cachePolicy) {
+		mCachePolicy = cachePolicy;
+	}
+
+	/**
+	 * Sets how downloads that fail in a way that may not last are retried. The
+	 * default is {@link RetryPolicy#DEFAULT}.
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		mRetryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Sets how long a download may take before it gives up its slot. The default
+	 * is {@link TimeoutPolicy#DEFAULT}.
+	 */
+	public void setTimeoutPolicy(TimeoutPolicy timeoutPolicy) {
+		mTimeoutPolicy = timeoutPolicy;
+	}
+
+	/**
+	 * Sets how many of the most used images are remembered by
+	 * {@link #saveWarmUpList(Context)}.
+	 */
+	public void setWarmUpSize(int warmUpSize) {
+		mWarmUpSize = warmUpSize;
+	}
+
+	/**
+	 * Starts decoding the images that were used most the last time
+	 * {@link #saveWarmUpList(Context)} was called into the memory cache, on a low
+	 * priority background thread. Call this before the first image is requested,
+	 * for example before setting the adapter in onCreate().
+	 */
+	public void warmUp(Context context) {
+		new CacheWarmer(context, mBitmapCache, mCachePolicy.getMaxStale()).start();
+	}
+
+	/**
+	 * Remembers the images used most by this downloader so that
+	 * {@link #warmUp(Context)} can load them next time. Call this when the screen
+	 * using the downloader stops, for example in onStop(). The list is written
+	 * on a background thread.
+	 */
+	public void saveWarmUpList(final Context context) {
+		final int warmUpSize = mWarmUpSize;
+		mEngine.getIoExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				CacheWarmer.save(context, mBitmapCache, warmUpSize);
+			}
+		});
+	}
+
+	/**
+	 * Sets the {@link KeyNormalizer} that turns URLs into cache keys. Pass null
+	 * to use URLs as they are.
+	 */
+	public void setKeyNormalizer(KeyNormalizer keyNormalizer) {
+		mKeyNormalizer = keyNormalizer;
+	}
+
+	/**
+	 * Sets whether images made by {@link Transformation}s are stored in the disk
+	 * cache as well as in memory, so they do not have to be made again after
+	 * they leave the memory cache. This costs disk space and the time to encode
+	 * them. They are not stored by default.
+	 */
+	public void setStoreTransformedImages(boolean storeTransformed) {
+		mStoreTransformed = storeTransformed;
+	}
+
+	/**
+	 * Sets the {@link UrlRewriter} that picks the URL to download for the size
+	 * of the view the image is shown in. Images are then also decoded at that
+	 * size rather than at up to {@value BitmapLoaderTask#MAX_WIDTH} pixels. Pass
+	 * null to download URLs as they are, which is the default.
+	 * 
+	 * @see TemplateUrlRewriter
+	 */
+	public void setUrlRewriter(UrlRewriter urlRewriter) {
+		mUrlRewriter = urlRewriter;
+	}
+
+	/**
+	 * Sets the {@link EventListener} told when each request made through this
+	 * downloader reaches each stage, for example a {@link TraceEventListener}.
+	 * Pass null, the default, to stop.
+	 */
+	public void setEventListener(EventListener eventListener) {
+		mEventListener = eventListener;
+	}
+
 	public void download(String url, ImageView imageView) {
-		Download d = new Download(url, imageView);
-		d.loadImage();
+		download(url, imageView, mCachePolicy);
 	}
 
-	public void cancelAllDownloads() {
-		mQueuedDownloads.clear();
-		for (Download download : mRunningDownloads) {
-			BitmapDownloaderTask task = download.getBitmapDownloaderTask();
-			if (task != null) {
-				task.cancel(true);
+	public void download(String url, ImageView imageView, CachePolicy cachePolicy) {
+		download(url, imageView, cachePolicy, null);
+	}
+
+	/**
+	 * @param tag
+	 *          the group the request belongs to, which can be cancelled, paused
+	 *          and resumed together with {@link #cancel(Object)},
+	 *          {@link #pause(Object)} and {@link #resume(Object)}, for example
+	 *          the activity showing the image
+	 */
+	public void download(String url, ImageView imageView, Object tag) {
+		download(url, imageView, mCachePolicy, tag);
+	}
+
+	public void download(String url, ImageView imageView, CachePolicy cachePolicy, Object tag) {
+		download(url, imageView, cachePolicy, tag, Collections.<Transformation> emptyList());
+	}
+
+	/**
+	 * @param transformations
+	 *          applied in order to the image on a background thread before it is
+	 *          cached and shown
+	 */
+	public void download(String url, ImageView imageView, List<Transformation> transformations) {
+		download(url, imageView, mCachePolicy, null, transformations);
+	}
+
+	public void download(final String url, final ImageView imageView, final CachePolicy cachePolicy, final Object tag,
+			final List<Transformation> transformations) {
+		if (BitmapEngine.isMainThread()) {
+			Download d = new Download(url, imageView, cachePolicy, tag, transformations);
+			d.event(EventListener.REQUESTED);
+			d.loadImage();
+		} else if (mUrlRewriter != null) {
+			// the URL depends on the size of the view, which can only be read safely
+			// on the main thread
+			mEngine.runOnMainThread(new Runnable() {
+				@Override
+				public void run() {
+					Download d = new Download(url, imageView, cachePolicy, tag, transformations);
+					d.event(EventListener.REQUESTED);
+					d.loadImage();
+				}
+			});
+		} else {
+			final Download d = new Download(url, imageView, cachePolicy, tag, transformations);
+			d.event(EventListener.REQUESTED);
+			d.checkMemoryCache();
+			mEngine.runOnMainThread(new Runnable() {
+				@Override
+				public void run() {
+					d.loadImage();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Looks url up in the memory cache. This can be called from any thread. The
+	 * {@link UrlRewriter} is not applied, as there is no view to size the image
+	 * for, so use {@link #getCachedBitmap(String, ImageView)} for images
+	 * downloaded through one.
+	 * 
+	 * @return the cached bitmap, or null if it is not in memory
+	 */
+	public Bitmap getCachedBitmap(String url) {
+		KeyNormalizer keyNormalizer = mKeyNormalizer;
+		return mBitmapCache.getBitmap(keyNormalizer != null && url != null ? keyNormalizer.normalize(url) : url);
+	}
+
+	/**
+	 * Looks url up in the memory cache, rewritten for imageView in the same way
+	 * as {@link #download(String, ImageView)} would rewrite it. Call this on the
+	 * main thread.
+	 * 
+	 * @return the cached bitmap, or null if it is not in memory
+	 */
+	public Bitmap getCachedBitmap(String url, ImageView imageView) {
+		return mBitmapCache.getBitmap(new Download(url, imageView).mKey);
+	}
+
+	/**
+	 * Stops new images from being loaded from disk or downloaded, for example
+	 * while a list is being flung. Images that are already in memory are still
+	 * shown straight away, and work that has already started carries on. Only the
+	 * last image requested for each view is loaded when {@link #resume()} is
+	 * called. Call this on the main thread.
+	 * 
+	 * @see PauseOnScrollListener
+	 */
+	public void pause() {
+		mPaused = true;
+	}
+
+	/**
+	 * Loads the images requested since {@link #pause()} was called. Call this on
+	 * the main thread.
+	 */
+	public void resume() {
+		if (!mPaused) {
+			return;
+		}
+		mPaused = false;
+		for (Download download : mEngine.getGroup(this)) {
+			download.release();
+		}
+	}
+
+	public boolean isPaused() {
+		return mPaused;
+	}
+
+	/**
+	 * Like {@link #pause()}, but only for the requests tagged with tag, whichever
+	 * downloader they were made through. The tag stays paused until it is
+	 * resumed or cancelled. Call this on the main thread.
+	 */
+	public void pause(Object tag) {
+		mEngine.setGroupPaused(tag, true);
+	}
+
+	/**
+	 * Loads the images tagged with tag that were requested since
+	 * {@link #pause(Object)} was called. Call this on the main thread.
+	 */
+	public void resume(Object tag) {
+		if (!mEngine.isGroupPaused(tag)) {
+			return;
+		}
+		mEngine.setGroupPaused(tag, false);
+		for (Download download : mEngine.getGroup(tag)) {
+			download.release();
+		}
+	}
+
+	/**
+	 * Cancels every request tagged with tag, whichever downloader it was made
+	 * through, whether it is queued, downloading, waiting for the same image to
+	 * be downloaded for another view or being loaded from disk. Requests with
+	 * other tags that are waiting for the same images carry on. A paused tag is
+	 * no longer paused, so the tag is not held on to.
+	 */
+	public void cancel(final Object tag) {
+		mEngine.runOnMainThread(new Runnable() {
+			@Override
+			public void run() {
+				mEngine.setGroupPaused(tag, false);
+				for (Download download : mEngine.getGroup(tag)) {
+					download.cancel();
+					download.detach();
+				}
 			}
+		});
+	}
+
+	/**
+	 * Sets how long showing decoded images may take in each frame. Images that
+	 * finish decoding together are shown together at the start of a frame, and
+	 * any left over when the budget runs out wait for the next frame. The budget
+	 * is shared by every downloader in the process. The default is 8ms.
+	 */
+	public void setFrameBudget(long budgetMillis) {
+		mEngine.getFrameBatcher().setBudget(budgetMillis * 1000 * 1000);
+	}
+
+	/**
+	 * Takes a snapshot of the stats of every downloader in the process. This
+	 * reads the size of the disk cache, so it is best called off the main
+	 * thread.
+	 */
+	public Stats getStats() {
+		return mEngine.getStatsRecorder().snapshot(mBitmapCache, DiskCache.peekInstance());
+	}
+
+	/**
+	 * Calls listener on the main thread with the stats every intervalMillis,
+	 * taking them on a background thread. Pass null to stop. Call this on the
+	 * main thread.
+	 */
+	public void setStatsListener(Stats.StatsListener listener, long intervalMillis) {
+		mStatsListener = listener;
+		mStatsInterval = intervalMillis;
+		mStatsGeneration++;
+		if (listener != null) {
+			scheduleStats(mStatsGeneration);
 		}
-		mRunningDownloads.clear();
 	}
 
-	public class Download implements BitmapDownloaderTask.BitmapDownloadListener, BitmapLoaderTask.BitmapLoadListener {
+	private void scheduleStats(final int generation) {
+		mEngine.getMainHandler().postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				if (generation != mStatsGeneration) {
+					return;
+				}
+				mEngine.getIoExecutor().execute(new Runnable() {
+					@Override
+					public void run() {
+						final Stats stats = getStats();
+						mEngine.runOnMainThread(new Runnable() {
+							@Override
+							public void run() {
+								if (generation == mStatsGeneration) {
+									mStatsListener.onStats(stats);
+									scheduleStats(generation);
+								}
+							}
+						});
+					}
+				});
+			}
+		}, mStatsInterval);
+	}
+
+	/**
+	 * Forgets the images that failed to download or decode, so that they are
+	 * tried again the next time they are shown, for example once the network
+	 * comes back. Failures are otherwise remembered for ten seconds to ten
+	 * minutes, depending on how likely they are to last.
+	 */
+	public void clearFailures() {
+		mEngine.getNegativeCache().clear();
+	}
+
+	/**
+	 * Cancels the requests made through this downloader, as
+	 * {@link #cancel(Object)} does for a tag. Requests made through other
+	 * downloaders carry on.
+	 */
+	public void cancelAllDownloads() {
+		cancel(this);
+	}
+
+	public class Download implements BitmapDownloaderTask.BitmapDownloadListener, BitmapLoaderTask.BitmapLoadListener, DownloadScheduler.Job,
+			TransitionAnimator.Target {
 		private String mUrl;
+		// what the image is downloaded and de-duplicated under
+		private String mKey;
+		// what the image is cached in memory under, which includes the
+		// transformations
+		private final String mCacheKey;
+		private final List<Transformation> mTransformations;
+		// the size the image is decoded at
+		private final int mReqWidth;
+		private final int mReqHeight;
+		private final String mHost;
 		private WeakReference<ImageView> mImageViewRef;
 		private BitmapDownloaderTask mBitmapDownloaderTask;
 		private BitmapLoaderTask mBitmapLoaderTask;
 		private boolean mIsCancelled;
 		private boolean mWasDownloaded = false;
+		private final CachePolicy mCachePolicy;
+		private final RetryPolicy mRetryPolicy = BitmapDownloader.this.mRetryPolicy;
+		private final TimeoutPolicy mTimeoutPolicy = BitmapDownloader.this.mTimeoutPolicy;
+		// how many times the download has been tried again
+		private int mRetries;
+		// set when the memory cache was checked off the main thread
+		private Bitmap mCachedBitmap;
+		private boolean mCheckedMemoryCache;
+		// the group the download was tagged with, may be null
+		private final Object mTag;
+		// set while the download waits for its downloader or group to resume
+		private boolean mHeld;
+		// when the download was last submitted to the scheduler
+		private long mSubmitted;
 
 		public Download(String url, ImageView imageView) {
+			this(url, imageView, CachePolicy.DEFAULT);
+		}
+
+		public Download(String url, ImageView imageView, CachePolicy cachePolicy) {
+			this(url, imageView, cachePolicy, null);
+		}
+
+		public Download(String url, ImageView imageView, CachePolicy cachePolicy, Object tag) {
+			this(url, imageView, cachePolicy, tag, Collections.<Transformation> emptyList());
+		}
+
+		/**
+		 * Call this on the main thread when a {@link UrlRewriter} is set, as the
+		 * URL is then rewritten for the size of imageView.
+		 */
+		public Download(String url, ImageView imageView, CachePolicy cachePolicy, Object tag, List<Transformation> transformations) {
+			KeyNormalizer keyNormalizer = mKeyNormalizer;
+			UrlRewriter urlRewriter = mUrlRewriter;
+			int reqWidth = BitmapLoaderTask.MAX_WIDTH;
+			int reqHeight = BitmapLoaderTask.MAX_HEIGHT;
+			if (urlRewriter != null && url != null && imageView != null) {
+				DisplayMetrics metrics = imageView.getResources().getDisplayMetrics();
+				ViewGroup.LayoutParams params = imageView.getLayoutParams();
+				int width = getTargetSize(imageView.getWidth() - imageView.getPaddingLeft() - imageView.getPaddingRight(),
+						params != null ? params.width : 0, metrics.widthPixels);
+				int height = getTargetSize(imageView.getHeight() - imageView.getPaddingTop() - imageView.getPaddingBottom(),
+						params != null ? params.height : 0, metrics.heightPixels);
+				url = urlRewriter.rewrite(url, width, height, metrics.density);
+				// the same bucket the server is likely to have sized the image for
+				reqWidth = SizeBuckets.bucket(width);
+				reqHeight = SizeBuckets.bucket(height);
+			}
+			this.mReqWidth = reqWidth;
+			this.mReqHeight = reqHeight;
 			this.mUrl = url;
+			this.mKey = keyNormalizer != null && url != null ? keyNormalizer.normalize(url) : url;
+			String transformationKey = BitmapLoaderTask.getTransformationKey(transformations);
+			this.mCacheKey = transformationKey != null && mKey != null ? mKey + transformationKey : mKey;
+			this.mTransformations = transformations;
+			this.mHost = Utilities.getHost(mKey);
 			this.mImageViewRef = new WeakReference<ImageView>(imageView);
+			this.mCachePolicy = cachePolicy;
+			this.mTag = tag;
 			mIsCancelled = false;
-			imageView.setImageDrawable(null);
+		}
+
+		/**
+		 * @return the size a view will show an image at, from its laid out size,
+		 *         then its layout parameters, then the size of the display
+		 */
+		private int getTargetSize(int laidOut, int layoutParam, int display) {
+			if (laidOut > 0) {
+				return laidOut;
+			}
+			if (layoutParam > 0) {
+				return layoutParam;
+			}
+			return display;
 		}
 
 		public BitmapDownloaderTask getBitmapDownloaderTask() {
@@ -172,14 +677,69 @@ public class BitmapDownloader {
 			return mImageViewRef.get();
 		}
 
+		public Object getTag() {
+			return mTag;
+		}
+
 		public String getUrl() {
 			return mUrl;
 		}
 
+		@Override
+		public String getKey() {
+			return mKey;
+		}
+
+		@Override
+		public String getHost() {
+			return mHost;
+		}
+
+		/**
+		 * Tells the downloader's {@link EventListener}, if it has one, that the
+		 * download has reached stage.
+		 */
+		void event(int stage) {
+			EventListener listener = mEventListener;
+			if (listener != null) {
+				listener.onEvent(this, stage, System.nanoTime());
+			}
+		}
+
+		/**
+		 * Looks the image up in the memory cache ahead of {@link #loadImage()}.
+		 * This can be called from any thread.
+		 */
+		void checkMemoryCache() {
+			mCachedBitmap = null;
+			if (mCachePolicy.isCacheAllowed()) {
+				mCachedBitmap = mBitmapCache.getBitmap(mCacheKey);
+				if (mCachedBitmap != null) {
+					mEngine.getStatsRecorder().onMemoryHit();
+				} else {
+					mEngine.getStatsRecorder().onMemoryMiss();
+				}
+			}
+			mCheckedMemoryCache = true;
+			event(EventListener.MEMORY_CHECKED);
+		}
+
 		public void loadImage() {
 			ImageView imageView = mImageViewRef.get();
 			if (imageView != null) {
-				Bitmap cachedBitmap = mBitmapCache.getBitmap(mUrl);
+				if (isAlreadyBound(imageView)) {
+					if (Logger.isLoggable(Log.DEBUG)) {
+						Logger.d(TAG, "loadImage(Already bound): " + mUrl);
+					}
+					return;
+				}
+				imageView.setTag(BOUND_TAG, null);
+				imageView.setImageDrawable(null);
+				if (!mCheckedMemoryCache) {
+					checkMemoryCache();
+				}
+				Bitmap cachedBitmap = mCachedBitmap;
+				mCachedBitmap = null;
 				// find the old download, cancel it and set this download as the current
 				// download for the imageview
 				Download oldDownload = (Download) imageView.getTag(DOWNLOAD_TAG);
@@ -191,142 +751,236 @@ public class BitmapDownloader {
 					BitmapDrawable bm = new BitmapDrawable(imageView.getResources(), cachedBitmap);
 					loadDrawable(bm);
 					imageView.setTag(DOWNLOAD_TAG, null);
+				} else if (hasFailedRecently()) {
+					// it would most likely fail again, so the error is shown without
+					// trying
+					if (Logger.isLoggable(Log.DEBUG)) {
+						Logger.d(TAG, "loadImage(Failed recently): " + mUrl);
+					}
+					mWasDownloaded = false;
+					loadErrorDrawable(imageView);
+					imageView.setTag(DOWNLOAD_TAG, null);
 				} else {
 					imageView.setTag(DOWNLOAD_TAG, this);
-					loadFromDisk(imageView);
+					// the downloader is a group of its own
+					mEngine.addToGroup(BitmapDownloader.this, this);
+					if (mTag != null) {
+						mEngine.addToGroup(mTag, this);
+					}
+					if (mPaused || mEngine.isGroupPaused(mTag)) {
+						loadInProgressDrawable(imageView);
+						mHeld = true;
+					} else {
+						load(imageView);
+					}
 				}
 			}
 		}
 
-		public void doDownload() {
-			if (mIsCancelled) { // if the download has been cancelled, do not download
-													// this image, but start the next one
-				if (!mQueuedDownloads.isEmpty() && mRunningDownloads.size() < mMaxDownloads) {
-					Download d = mQueuedDownloads.remove(0);
-					d.doDownload();
-				}
-				return;
+		/**
+		 * @return true if imageView already shows, or is already loading, the
+		 *         image of this request, as it does when an adapter binds a row to
+		 *         the URL it was bound to before. A policy that does not use the
+		 *         cache always loads the image again.
+		 */
+		private boolean isAlreadyBound(ImageView imageView) {
+			if (!mCachePolicy.isCacheAllowed() || mCacheKey == null) {
+				return false;
 			}
-			ImageView imageView = mImageViewRef.get();
-			if (imageView != null && imageView.getTag(DOWNLOAD_TAG) == this) {
-				mBitmapDownloaderTask = new BitmapDownloaderTask(imageView, this);
-				mBitmapDownloaderTask.execute(mUrl);
-				Log.d(TAG, "doDownload: " + mUrl);
-				mRunningDownloads.add(this);
+			Download current = (Download) imageView.getTag(DOWNLOAD_TAG);
+			if (current != null) {
+				return !current.mIsCancelled && isSameRequest(current.mCacheKey, current.mReqWidth, current.mReqHeight);
 			}
+			Object bound = imageView.getTag(BOUND_TAG);
+			if (bound instanceof BoundRequest) {
+				BoundRequest request = (BoundRequest) bound;
+				return isSameRequest(request.cacheKey, request.reqWidth, request.reqHeight) && request.isShownBy(imageView);
+			}
+			return false;
 		}
 
-		private boolean isBeingDownloaded() {
-			for (Download download : mRunningDownloads) {
-				if (download == null) {
-					continue;
-				}
-				ImageView otherImageView = download.getImageView();
-				ImageView thisImageView = getImageView();
-				if (thisImageView == null || otherImageView == null) {
-					continue;
-				}
-				if (otherImageView.equals(thisImageView) && download.getUrl().equals(mUrl)) {
-					return true;
+		private boolean isSameRequest(String cacheKey, int reqWidth, int reqHeight) {
+			return mCacheKey.equals(cacheKey) && mReqWidth == reqWidth && mReqHeight == reqHeight;
+		}
+
+		/**
+		 * @return true if the image failed to download or decode recently enough
+		 *         that it is not worth trying again. Policies that only use the
+		 *         cache, or never use it, always try.
+		 */
+		private boolean hasFailedRecently() {
+			if (!mCachePolicy.isCacheAllowed() || !mCachePolicy.isNetworkAllowed()) {
+				return false;
+			}
+			NegativeCache negativeCache = mEngine.getNegativeCache();
+			return negativeCache.get(mKey) != -1 || (mCacheKey != null && !mCacheKey.equals(mKey) && negativeCache.get(mCacheKey) != -1);
+		}
+
+		/**
+		 * Loads a held download, unless its downloader or group is still paused.
+		 */
+		private void release() {
+			if (mHeld && !mPaused && !mEngine.isGroupPaused(mTag)) {
+				mHeld = false;
+				if (isCurrent()) {
+					load(getImageView());
 				}
 			}
-			return false;
+		}
+
+		/**
+		 * Removes the download from its groups once it has nothing left to do.
+		 */
+		private void finish() {
+			mEngine.removeFromGroup(BitmapDownloader.this, this);
+			if (mTag != null) {
+				mEngine.removeFromGroup(mTag, this);
+			}
+		}
+
+		/**
+		 * Stops the view waiting for this download.
+		 */
+		private void detach() {
+			ImageView imageView = getImageView();
+			if (imageView != null && this == imageView.getTag(DOWNLOAD_TAG)) {
+				imageView.setTag(DOWNLOAD_TAG, null);
+			}
+		}
+
+		private void load(ImageView imageView) {
+			if (mCachePolicy.isCacheAllowed()) {
+				loadFromDisk(imageView, mCachePolicy.getMaxStale());
+			} else {
+				notFound();
+			}
+		}
+
+		// called by the scheduler when it is this download's turn, which may be
+		// on any thread
+		@Override
+		public boolean start() {
+			if (mIsCancelled) { // if the download has been cancelled, do not download
+													// this image, the scheduler will start the next one
+				return false;
+			}
+			if (!mEngine.getCircuitBreaker().allowRequest(mHost)) {
+				// the host is failing, so the slot goes to another host
+				mEngine.runOnMainThread(new Runnable() {
+					@Override
+					public void run() {
+						failFast();
+					}
+				});
+				return false;
+			}
+			mEngine.getStatsRecorder().onDequeued(System.nanoTime() - mSubmitted);
+			event(EventListener.DEQUEUED);
+			if (BitmapEngine.isMainThread()) {
+				return startTask();
+			}
+			// hold on to the slot until the main thread has had a chance to start
+			// the task
+			mEngine.runOnMainThread(new Runnable() {
+				@Override
+				public void run() {
+					if (!startTask()) {
+						resubmit(mScheduler.finished(Download.this));
+					}
+				}
+			});
+			return true;
 		}
 
 		@SuppressLint("NewApi")
-		private void loadFromDisk(ImageView imageView) {
-			if (imageView != null && !mIsCancelled) {
-				mBitmapLoaderTask = new BitmapLoaderTask(imageView, this);
+		private boolean startTask() {
+			if (mIsCancelled) {
+				return false;
+			}
+			ImageView imageView = mImageViewRef.get();
+			if (imageView != null && imageView.getTag(DOWNLOAD_TAG) == this) {
+				mBitmapDownloaderTask = new BitmapDownloaderTask(imageView, this);
+				mBitmapDownloaderTask.setDownload(this);
+				mBitmapDownloaderTask.setTimeoutPolicy(mTimeoutPolicy);
 				try {
 					if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-						mBitmapLoaderTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, mUrl);
+						mBitmapDownloaderTask.executeOnExecutor(mEngine.getNetworkExecutor(), mUrl, mKey);
 					} else {
-						mBitmapLoaderTask.execute(mUrl);
+						mBitmapDownloaderTask.execute(mUrl, mKey);
 					}
 				} catch (RejectedExecutionException e) {
+					return false;
 				}
+				if (Logger.isLoggable(Log.DEBUG)) {
+					Logger.d(TAG, "doDownload: " + mUrl);
+				}
+				return true;
 			}
+			return false;
 		}
 
-		private void cancel() {
-			Log.d(TAG, "cancel requested for: " + mUrl);
-			mIsCancelled = true;
-			if (mQueuedDownloads.contains(this)) {
-				mQueuedDownloads.remove(this);
-			}
-			if (mBitmapDownloaderTask != null) mBitmapDownloaderTask.cancel(true);
-			if (mBitmapLoaderTask != null) mBitmapLoaderTask.cancel(true);
+		/**
+		 * @return true if this is still the download the imageview is waiting for
+		 */
+		private boolean isCurrent() {
+			ImageView imageView = getImageView();
+			return imageView != null && imageView.getTag(DOWNLOAD_TAG) == this;
 		}
 
-		private int indexOfDownloadWithDifferentURL() {
-			for (Download download : mRunningDownloads) {
-				if (download == null) {
-					continue;
-				}
-				ImageView otherImageView = download.getImageView();
-				ImageView thisImageView = getImageView();
-				if (thisImageView == null || otherImageView == null) {
-					continue;
-				}
-				if (otherImageView.equals(thisImageView) && !download.getUrl().equals(mUrl)) {
-					return mRunningDownloads.indexOf(download);
+		/**
+		 * Submits downloads that were waiting for this one, which did not download
+		 * the image, so that one of them downloads it instead.
+		 */
+		private void resubmit(List<DownloadScheduler.Job> duplicates) {
+			for (DownloadScheduler.Job job : duplicates) {
+				Download dup = (Download) job;
+				if (dup.isCurrent()) {
+					dup.submit();
 				}
 			}
-			return -1;
 		}
 
-		private boolean isQueuedForDownload() {
-			for (Download download : mQueuedDownloads) {
-				if (download == null) {
-					continue;
-				}
-				ImageView otherImageView = download.getImageView();
-				ImageView thisImageView = getImageView();
-				if (thisImageView == null || otherImageView == null) {
-					continue;
-				}
-				if (otherImageView.equals(thisImageView) && download.getUrl().equals(mUrl)) {
-					return true;
-				}
+		/**
+		 * Queues the download, or makes it wait for a download of the same image.
+		 * 
+		 * @return false if the download waits for another one
+		 */
+		private boolean submit() {
+			mSubmitted = System.nanoTime();
+			event(EventListener.QUEUED);
+			if (mScheduler.submit(this)) {
+				return true;
 			}
+			mEngine.getStatsRecorder().onCoalesced();
 			return false;
 		}
 
-		private int indexOfQueuedDownloadWithDifferentURL() {
-			for (Download download : mQueuedDownloads) {
-				if (download == null) {
-					continue;
-				}
-				ImageView otherImageView = download.getImageView();
-				ImageView thisImageView = getImageView();
-				if (thisImageView == null || otherImageView == null) {
-					continue;
-				}
-				if (otherImageView.equals(thisImageView) && !download.getUrl().equals(mUrl)) {
-					return mQueuedDownloads.indexOf(download);
-				}
+		private void loadFromDisk(ImageView imageView, long maxStale) {
+			if (imageView != null && !mIsCancelled) {
+				mBitmapLoaderTask = new BitmapLoaderTask(imageView, this, mBitmapCache, maxStale, mTransformations, mStoreTransformed, mReqWidth,
+						mReqHeight);
+				mBitmapLoaderTask.setDownload(this);
+				mBitmapLoaderTask.execute(mKey);
 			}
-			return -1;
 		}
 
-		private boolean isAnotherQueuedOrRunningWithSameUrl() {
-			for (Download download : mQueuedDownloads) {
-				if (download == null) {
-					continue;
-				}
-				if (download.getUrl().equals(mUrl)) {
-					return true;
-				}
+		private void cancel() {
+			if (Logger.isLoggable(Log.DEBUG)) {
+				Logger.d(TAG, "cancel requested for: " + mUrl);
 			}
-			for (Download download : mRunningDownloads) {
-				if (download == null) {
-					continue;
-				}
-				if (download.getUrl().equals(mUrl)) {
-					return true;
-				}
+			if (!mIsCancelled) {
+				mEngine.getStatsRecorder().onCancelled();
+				event(EventListener.CANCELLED);
 			}
-			return false;
+			mIsCancelled = true;
+			mHeld = false;
+			finish();
+			mScheduler.remove(this);
+			if (mBitmapDownloaderTask != null) {
+				mBitmapDownloaderTask.cancel(true);
+				mBitmapDownloaderTask.abort();
+			}
+			if (mBitmapLoaderTask != null) mBitmapLoaderTask.cancel();
 		}
 
 		private void loadDrawable(Drawable d) {
@@ -334,40 +988,17 @@ public class BitmapDownloader {
 		}
 
 		private void loadDrawable(Drawable d, boolean animate) {
-			Log.d(TAG, "loadDrawable: " + d);
+			if (Logger.isLoggable(Log.DEBUG)) {
+				Logger.d(TAG, "loadDrawable: " + d);
+			}
 			ImageView imageView = getImageView();
 			if (imageView != null) {
-				if (animate && (mAnimateImageAppearance || (mAnimateImageAppearanceAfterDownload && mWasDownloaded))) {
-					Drawable current = imageView.getDrawable();
-					if (current == null) {
-						current = new ColorDrawable(Color.TRANSPARENT);
-					}
-					Drawable[] layers = { current, d };
-					BitmapTransitionDrawable drawable = new BitmapTransitionDrawable(layers);
-					drawable.setTransitionCallback(new BitmapTransitionCallback() {
-
-						@Override
-						public void onStarted() {
-						}
-
-						@Override
-						public void onEnded() {
-							ImageView imageView = getImageView();
-							// the imageview tag must be null as we've already removed
-							// ourselves as the tag from the imageview. If a new downloader is
-							// using the imageview, ir would have set itself as the tag
-							if (imageView != null && imageView.getTag() == null) {
-								Drawable d = ((BitmapTransitionDrawable) imageView.getDrawable()).getDrawable(1);
-								imageView.setImageDrawable(d);
-								if (mCallback != null) {
-									mCallback.onLoaded(imageView);
-								}
-							}
-						}
-					});
-					imageView.setImageDrawable(drawable);
-					drawable.setCrossFadeEnabled(true); // fade out the old image
-					drawable.startTransition(200);
+				event(EventListener.DELIVERED);
+				imageView.setTag(BOUND_TAG, new BoundRequest(mCacheKey, mReqWidth, mReqHeight, d));
+				// there is no point fading in an image nobody can see
+				if (animate && (mAnimateImageAppearance || (mAnimateImageAppearanceAfterDownload && mWasDownloaded)) && imageView.isShown() &&
+						imageView.getWindowToken() != null) {
+					mTransitionAnimator.start(this, d, 200);
 				} else {
 					imageView.setImageDrawable(d);
 					if (mCallback != null) {
@@ -377,55 +1008,143 @@ public class BitmapDownloader {
 			}
 		}
 
+		@Override
+		public void onStarted() {
+		}
+
+		// called by the animator once the image has faded in and replaced the
+		// transition
+		@Override
+		public void onEnded() {
+			ImageView imageView = getImageView();
+			if (imageView != null && mCallback != null) {
+				mCallback.onLoaded(imageView);
+			}
+		}
+
 		// called when the download has completed
 		@Override
 		public void onComplete() {
-			Log.d(TAG, "onComplete: " + mUrl);
+			if (Logger.isLoggable(Log.DEBUG)) {
+				Logger.d(TAG, "onComplete: " + mUrl);
+			}
 
-			mRunningDownloads.remove(this);
 			mWasDownloaded = true;
+			// a download that was forced through may have fixed an earlier failure
+			mEngine.getNegativeCache().remove(mKey);
+			mEngine.getCircuitBreaker().onSuccess(mHost);
 
 			ImageView imageView = mImageViewRef.get();
+			// whatever was just downloaded is shown, even if the server says it has
+			// already expired
 			if (imageView != null && this == imageView.getTag(DOWNLOAD_TAG)) {
-				loadFromDisk(getImageView());
+				loadFromDisk(getImageView(), Long.MAX_VALUE);
+			} else {
+				finish();
 			}
 
-			ArrayList<Download> duplicates = mDuplicateDownloads.get(mUrl);
-			if (duplicates != null) {
-				for (Download dup : duplicates) {
-					Log.d(TAG, "onComplete: " + dup.mUrl);
-					// load the image.
-					if (dup.getImageView().getTag(DOWNLOAD_TAG) == dup) {
-						dup.loadFromDisk(dup.getImageView());
-					}
+			// duplicates may belong to other downloaders
+			for (DownloadScheduler.Job job : mScheduler.finished(this)) {
+				Download dup = (Download) job;
+				if (Logger.isLoggable(Log.DEBUG)) {
+					Logger.d(TAG, "onComplete: " + dup.mUrl);
+				}
+				// load the image.
+				if (dup.isCurrent()) {
+					dup.mWasDownloaded = true;
+					dup.loadFromDisk(dup.getImageView(), Long.MAX_VALUE);
 				}
-				mDuplicateDownloads.remove(mUrl);
-			}
-
-			if (!mQueuedDownloads.isEmpty()) {
-				Download d = mQueuedDownloads.remove(0);
-				d.doDownload();
 			}
 		}
 
 		// called if there is an error with the download
 		@Override
 		public void onError() {
-			Log.d(TAG, "onError: " + mUrl);
-			mRunningDownloads.remove(this);
+			if (Logger.isLoggable(Log.DEBUG)) {
+				Logger.d(TAG, "onError: " + mUrl);
+			}
+			mEngine.getStatsRecorder().onDownloadFailed();
+			int failure = mBitmapDownloaderTask != null ? mBitmapDownloaderTask.getFailure() : -1;
+			CircuitBreaker circuitBreaker = mEngine.getCircuitBreaker();
+			if (failure == NegativeCache.FAILURE_NETWORK || failure == NegativeCache.FAILURE_SERVER_ERROR) {
+				circuitBreaker.onFailure(mHost);
+			} else if (failure != -1) {
+				// the host answered, it just did not have the image
+				circuitBreaker.onSuccess(mHost);
+			}
+			if (mRetryPolicy.shouldRetry(mRetries, failure) && isCurrent() && !circuitBreaker.isOpen(mHost)) {
+				retryLater();
+				return;
+			}
+			if (failure != -1) {
+				mEngine.getNegativeCache().put(mKey, failure);
+			}
 			ImageView imageView = mImageViewRef.get();
 			mWasDownloaded = true;
-			if (imageView != null) {
+			// a view that has moved on to another image keeps it
+			if (imageView != null && this == imageView.getTag(DOWNLOAD_TAG)) {
 				loadErrorDrawable(imageView);
+				imageView.setTag(DOWNLOAD_TAG, null);
+			}
+			finish();
+			// the downloads waiting for this one would fail the same way
+			for (DownloadScheduler.Job job : mScheduler.finished(this)) {
+				Download dup = (Download) job;
+				if (dup.isCurrent()) {
+					ImageView dupImageView = dup.getImageView();
+					// with the error drawable of its own downloader
+					dup.loadErrorDrawable(dupImageView);
+					dupImageView.setTag(DOWNLOAD_TAG, null);
+				}
+				dup.finish();
 			}
+		}
+
+		/**
+		 * Gives up the download slot and submits the download again after the
+		 * backoff of the retry policy. Downloads of the same image carry on
+		 * waiting for this one.
+		 */
+		private void retryLater() {
+			mRetries++;
+			long backoff = mRetryPolicy.getBackoff(mRetries);
+			if (Logger.isLoggable(Log.DEBUG)) {
+				Logger.d(TAG, "retryLater(" + mRetries + ", " + backoff + "ms): " + mUrl);
+			}
+			mScheduler.suspended(this);
+			mEngine.getMainHandler().postDelayed(new Runnable() {
+				@Override
+				public void run() {
+					// a cancelled download has already been removed from the scheduler
+					if (mIsCancelled) {
+						return;
+					}
+					if (!isCurrent()) {
+						mScheduler.remove(Download.this);
+						finish();
+					} else if (mEngine.getCircuitBreaker().isOpen(mHost)) {
+						mScheduler.remove(Download.this);
+						failFast();
+					} else {
+						submit();
+					}
+				}
+			}, backoff);
+		}
 
+		/**
+		 * Shows the error without downloading, as the host is failing.
+		 */
+		private void failFast() {
+			if (Logger.isLoggable(Log.DEBUG)) {
+				Logger.d(TAG, "failFast: " + mUrl);
+			}
+			ImageView imageView = getImageView();
 			if (imageView != null && this == imageView.getTag(DOWNLOAD_TAG)) {
+				loadErrorDrawable(imageView);
 				imageView.setTag(DOWNLOAD_TAG, null);
 			}
-			if (!mQueuedDownloads.isEmpty()) {
-				Download d = mQueuedDownloads.remove(0);
-				d.doDownload();
-			}
+			finish();
 		}
 
 		private void loadErrorDrawable(ImageView imageView) {
@@ -448,76 +1167,78 @@ public class BitmapDownloader {
 		@Override
 		public void onCancel() {
 			mIsCancelled = true;
-			Log.d(TAG, "onCancel: " + mUrl);
-			mRunningDownloads.remove(this);
-
-			ImageView imageView = mImageViewRef.get();
-			if (imageView != null && this == imageView.getTag(DOWNLOAD_TAG)) {
-				imageView.setTag(DOWNLOAD_TAG, null);
-			}
-			if (!mQueuedDownloads.isEmpty()) {
-				Download d = mQueuedDownloads.remove(0);
-				Log.d(TAG, "starting DL of: " + d.getUrl());
-				d.doDownload();
+			if (Logger.isLoggable(Log.DEBUG)) {
+				Logger.d(TAG, "onCancel: " + mUrl);
 			}
+
+			detach();
+			finish();
+			resubmit(mScheduler.finished(this));
 		}
 
 		// called if the file is not found on the file system
 		@Override
 		public void notFound() {
-			Log.d(TAG, "notFound: " + mUrl);
+			if (Logger.isLoggable(Log.DEBUG)) {
+				Logger.d(TAG, "notFound: " + mUrl);
+			}
 			if (mIsCancelled) return;
 			ImageView imageView = getImageView();
 
 			if (imageView == null || this != imageView.getTag(DOWNLOAD_TAG)) return;
 
+			if (mCachePolicy.isCacheAllowed() && !mWasDownloaded) {
+				mEngine.getStatsRecorder().onDiskMiss();
+			}
+
+			if (!mCachePolicy.isNetworkAllowed()) {
+				loadErrorDrawable(imageView);
+				imageView.setTag(DOWNLOAD_TAG, null);
+				finish();
+				return;
+			}
+
+			if (mEngine.getCircuitBreaker().isOpen(mHost)) {
+				failFast();
+				return;
+			}
+
 			loadInProgressDrawable(imageView);
 
-			if (isAnotherQueuedOrRunningWithSameUrl()) {
-				if (mDuplicateDownloads.containsKey(mUrl)) {
-					ArrayList<Download> arr = mDuplicateDownloads.get(mUrl);
-					arr.add(this);
-					mDuplicateDownloads.put(mUrl, arr);
-				} else {
-					ArrayList<Download> arr = new ArrayList<Download>();
-					arr.add(this);
-					mDuplicateDownloads.put(mUrl, arr);
+			// the scheduler makes this download wait if the same image is already
+			// being downloaded, and queues it if too many are running
+			if (submit()) {
+				if (Logger.isLoggable(Log.DEBUG)) {
+					Logger.d(TAG, "notFound(Downloading): " + mUrl);
 				}
 			} else {
-				// check if this imageView is being used with a different URL, if so
-				// cancel the other one.
-				int queuedIndex = indexOfQueuedDownloadWithDifferentURL();
-				int downloadIndex = indexOfDownloadWithDifferentURL();
-				while (queuedIndex != -1) {
-					mQueuedDownloads.remove(queuedIndex);
-					Log.d(TAG, "notFound(Removing): " + mUrl);
-					queuedIndex = indexOfQueuedDownloadWithDifferentURL();
-				}
-				if (downloadIndex != -1) {
-					Download runningDownload = mRunningDownloads.get(downloadIndex);
-					BitmapDownloaderTask downloadTask = runningDownload.getBitmapDownloaderTask();
-					if (downloadTask != null) {
-						downloadTask.cancel(true);
-						Log.d(TAG, "notFound(Cancelling): " + mUrl);
-					}
-				}
-
-				if (!(isBeingDownloaded() || isQueuedForDownload())) {
-					if (mRunningDownloads.size() >= mMaxDownloads) {
-						Log.d(TAG, "notFound(Queuing): " + mUrl);
-						mQueuedDownloads.add(this);
-					} else {
-						Log.d(TAG, "notFound(Downloading): " + mUrl);
-						doDownload();
-					}
+				if (Logger.isLoggable(Log.DEBUG)) {
+					Logger.d(TAG, "notFound(Duplicate): " + mUrl);
 				}
 			}
 		}
 
 		@Override
-		public void loadBitmap(Bitmap b) {
-			Log.d(TAG, "loadBitmap: " + mUrl);
-			mBitmapCache.addBitmap(mUrl, b);
+		public void loadBitmap(final Bitmap b) {
+			if (Logger.isLoggable(Log.DEBUG)) {
+				Logger.d(TAG, "loadBitmap: " + mUrl);
+			}
+			if (!mWasDownloaded) {
+				mEngine.getStatsRecorder().onDiskHit();
+			}
+			String memoryKey = mBitmapLoaderTask != null ? mBitmapLoaderTask.getMemoryKey() : null;
+			mBitmapCache.addBitmap(mKey, BitmapLoaderTask.getTransformationKey(mTransformations), memoryKey != null ? memoryKey : mCacheKey, b,
+					mReqWidth, mReqHeight);
+			// shown with the other images that finish in this frame
+			mEngine.getFrameBatcher().post(new Runnable() {
+				@Override
+				public void run() {
+					showBitmap(b);
+				}
+			});
+		}
+
+		private void showBitmap(Bitmap b) {
 			ImageView imageView = getImageView();
 			if (imageView != null && this == imageView.getTag(DOWNLOAD_TAG)) {
 				BitmapDrawable bm = new BitmapDrawable(imageView.getResources(), b);
@@ -525,24 +1246,33 @@ public class BitmapDownloader {
 				imageView.setTag(DOWNLOAD_TAG, null);
 			}
 			mWasDownloaded = false;
+			finish();
 		}
 
 		@Override
 		public void onLoadError() {
-			Log.d(TAG, "onLoadError: " + mUrl);
-			ImageView imageView = getImageView();
-			if (imageView != null && this == imageView.getTag(DOWNLOAD_TAG)) {
-				imageView.setTag(DOWNLOAD_TAG, null);
+			if (Logger.isLoggable(Log.DEBUG)) {
+				Logger.d(TAG, "onLoadError: " + mUrl);
+			}
+			// an image that cannot be decoded straight after downloading it will
+			// not decode after downloading it again
+			if (mWasDownloaded && mBitmapLoaderTask != null && mBitmapLoaderTask.hasFailed()) {
+				mEngine.getNegativeCache().put(mCacheKey, NegativeCache.FAILURE_DECODE);
+				if (isCurrent()) {
+					loadErrorDrawable(getImageView());
+				}
 			}
+			detach();
+			finish();
 		}
 
 		@Override
 		public void onLoadCancelled() {
-			Log.d(TAG, "onLoadCancelled: " + mUrl);
-			ImageView imageView = getImageView();
-			if (imageView != null && this == imageView.getTag(DOWNLOAD_TAG)) {
-				imageView.setTag(DOWNLOAD_TAG, null);
+			if (Logger.isLoggable(Log.DEBUG)) {
+				Logger.d(TAG, "onLoadCancelled: " + mUrl);
 			}
+			detach();
+			finish();
 		}
 	}
 
@@ -27,20 +27,30 @@
 
 package za.co.immedia.bitmapdownloader;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
 
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
 
-import android.content.Context;
 import android.net.http.AndroidHttpClient;
 import android.os.AsyncTask;
+import android.os.Handler;
 import android.util.Log;
 import android.widget.ImageView;
 
@@ -50,10 +60,32 @@ import android.widget.ImageView;
 
 public class BitmapDownloaderTask extends AsyncTask<String, Void, Boolean> {
 	private static final String TAG = BitmapDownloaderTask.class.getCanonicalName();
+	// how long a response without any freshness information is considered fresh
+	private static final long DEFAULT_FRESHNESS_LIFETIME = 1000 * 60 * 60 * 24;
+	// how many redirects are followed before giving up on a URL
+	private static final int MAX_REDIRECTS = 5;
 	public String mUrl;
-	private final Context mContext;
+	// the key the image is cached under, which may differ from the URL
+	private String mKey;
+	private final DiskCache mDiskCache;
+	private final ConcurrencyController mConcurrencyController;
+	private final StatsRecorder mStatsRecorder;
 	private final BitmapDownloadListener mListener;
-	private HttpGet mGetRequest;
+	// read by the deadline on the main thread
+	private volatile HttpGet mGetRequest;
+	// the redirect being looked up, also read by the deadline
+	private volatile HttpHead mHeadRequest;
+	private TimeoutPolicy mTimeoutPolicy = TimeoutPolicy.DEFAULT;
+	// set when the deadline or the watchdog aborted the request
+	private volatile boolean mTimedOut;
+	private volatile boolean mStalled;
+	// the bytes of the body read so far, watched for stalls on the main thread
+	private volatile long mBytesRead;
+	// told of each stage, may be null
+	private BitmapDownloader.Download mDownload;
+	// one of the NegativeCache failures, or -1 if the failure is not worth
+	// remembering
+	private int mFailure = -1;
 
 	public interface BitmapDownloadListener {
 		public void onComplete();
@@ -64,18 +96,51 @@ public class BitmapDownloaderTask extends AsyncTask<String, Void, Boolean> {
 	}
 
 	public BitmapDownloaderTask(ImageView imageView, BitmapDownloadListener listener) {
-		mContext = imageView.getContext().getApplicationContext();
+		mDiskCache = DiskCache.getInstance(imageView.getContext());
+		mConcurrencyController = BitmapEngine.getInstance().getConcurrencyController();
+		mStatsRecorder = BitmapEngine.getInstance().getStatsRecorder();
 		mListener = listener;
 	}
 
+	void setDownload(BitmapDownloader.Download download) {
+		mDownload = download;
+	}
+
+	void setTimeoutPolicy(TimeoutPolicy timeoutPolicy) {
+		mTimeoutPolicy = timeoutPolicy;
+	}
+
+	private AndroidHttpClient newClient() {
+		AndroidHttpClient client = AndroidHttpClient.newInstance("Android");
+		HttpParams params = client.getParams();
+		HttpConnectionParams.setConnectionTimeout(params, mTimeoutPolicy.getConnectTimeout());
+		HttpConnectionParams.setSoTimeout(params, mTimeoutPolicy.getReadTimeout());
+		return client;
+	}
+
+	/**
+	 * @return how the download failed, one of the {@link NegativeCache}
+	 *         failures, or -1 if it did not fail in a way that will last
+	 */
+	int getFailure() {
+		return mFailure;
+	}
+
+	private void event(int stage) {
+		if (mDownload != null) {
+			mDownload.event(stage);
+		}
+	}
+
 	@Override
 	protected Boolean doInBackground(String... params) {
 		mUrl = params[0];
+		mKey = params.length > 1 ? params[1] : mUrl;
 		Boolean finished = false;
 		try {
 			finished = downloadBitmap();
 		} catch (Exception e) {
-			Log.w(TAG, "Error downloading bitmap", e);
+			Logger.w(TAG, "Error downloading bitmap", e);
 		}
 		return finished;
 	}
@@ -88,13 +153,32 @@ public class BitmapDownloaderTask extends AsyncTask<String, Void, Boolean> {
 
 	@Override
 	protected void onCancelled(Boolean done) {
-		Log.w(TAG, "onCancelled(Boolean):  " + done);
+		if (Logger.isLoggable(Log.DEBUG)) {
+			Logger.d(TAG, "onCancelled(Boolean):  " + done);
+		}
 		mListener.onCancel();
 		//if the task is cancelled, abort the image request
-		if (mGetRequest != null) {
-			Log.w(TAG, "Aborting get request for:  " + mUrl);
-			mGetRequest.abort();
-			mGetRequest = null;
+		abort();
+	}
+
+	/**
+	 * Aborts the request in progress straight away. Call this after
+	 * {@link #cancel(boolean)}, as interrupting the thread does not unblock a
+	 * socket read, and onCancelled is only called once the download has given
+	 * up, so a cancelled download stuck in a read would keep its slot until the
+	 * read timed out.
+	 */
+	void abort() {
+		HttpGet getRequest = mGetRequest;
+		if (getRequest != null) {
+			if (Logger.isLoggable(Log.DEBUG)) {
+				Logger.d(TAG, "Aborting get request for:  " + mUrl);
+			}
+			getRequest.abort();
+		}
+		HttpHead headRequest = mHeadRequest;
+		if (headRequest != null) {
+			headRequest.abort();
 		}
 	}
 
@@ -104,7 +188,9 @@ public class BitmapDownloaderTask extends AsyncTask<String, Void, Boolean> {
 		if (isCancelled()) {
 			done = false;
 		}
-		Log.w(TAG, "onPostExecute:  " + done);
+		if (Logger.isLoggable(Log.DEBUG)) {
+			Logger.d(TAG, "onPostExecute:  " + done);
+		}
 
 		if (done) {
 			mListener.onComplete();
@@ -113,21 +199,49 @@ public class BitmapDownloaderTask extends AsyncTask<String, Void, Boolean> {
 		}
 	}
 
-	private int resolveUrl() {
+	/**
+	 * Throws if the download was cancelled or the deadline has passed, so that
+	 * no request is sent after either. The request is set before calling this,
+	 * so that a cancellation or deadline coming afterwards finds it to abort.
+	 */
+	private void checkAborted() throws IOException {
+		if (isCancelled()) {
+			throw new IOException("Download of " + mUrl + " was cancelled");
+		}
+		if (mTimedOut) {
+			throw new IOException("Download of " + mUrl + " passed its deadline");
+		}
+	}
+
+	/**
+	 * Follows the redirects from mUrl, leaving mUrl set to the last one.
+	 * 
+	 * @param redirects
+	 *          how many redirects have been followed so far
+	 * @return the status of the last URL
+	 */
+	private int resolveUrl(int redirects) throws IOException {
 		HttpHead headRequest = new HttpHead(mUrl);
-		AndroidHttpClient client = AndroidHttpClient.newInstance("Android");
+		mHeadRequest = headRequest;
+		checkAborted();
+		AndroidHttpClient client = newClient();
 		int statusCode = HttpStatus.SC_OK;
 		try {
 			HttpResponse response = client.execute(headRequest);
 			statusCode = response.getStatusLine().getStatusCode();
 			if (statusCode == HttpStatus.SC_TEMPORARY_REDIRECT || statusCode == HttpStatus.SC_MOVED_PERMANENTLY ||
 					statusCode == HttpStatus.SC_MOVED_TEMPORARILY) {
+				if (redirects >= MAX_REDIRECTS) {
+					Logger.w(TAG, "Too many redirects from " + mUrl);
+					return statusCode;
+				}
 				mUrl = response.getFirstHeader("Location").getValue();
-				return resolveUrl();
+				return resolveUrl(redirects + 1);
 			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			Logger.w(TAG, "Error resolving redirect", e);
 		} finally {
+			mHeadRequest = null;
 			client.close();
 		}
 		return statusCode;
@@ -137,31 +251,81 @@ public class BitmapDownloaderTask extends AsyncTask<String, Void, Boolean> {
 		if (isCancelled()) {
 			return false;
 		}
-		String filename = Utilities.md5(mUrl); //get the filename before we follow any redirects. very important
+		String filename = Utilities.md5(mKey); //get the filename before we follow any redirects. very important
 		Boolean finished = true;
-		AndroidHttpClient client = AndroidHttpClient.newInstance("Android");
+		AndroidHttpClient client = newClient();
+		boolean connected = false;
+		boolean complete = false;
+		// aborts the request, wherever it has got to, once the deadline passes
+		Runnable deadline = new Runnable() {
+			@Override
+			public void run() {
+				mTimedOut = true;
+				HttpGet request = mGetRequest;
+				if (request != null) {
+					request.abort();
+				}
+				HttpHead headRequest = mHeadRequest;
+				if (headRequest != null) {
+					headRequest.abort();
+				}
+			}
+		};
+		// aborts the request if too few bytes of the body arrived over the last
+		// window, even if a read is stuck waiting for more
+		Runnable watchdog = new Runnable() {
+			private long mLastBytes;
+
+			@Override
+			public void run() {
+				HttpGet request = mGetRequest;
+				long bytes = mBytesRead;
+				if (request != null && mTimeoutPolicy.isStalled(bytes - mLastBytes, mTimeoutPolicy.getStallWindow())) {
+					mStalled = true;
+					request.abort();
+				} else {
+					mLastBytes = bytes;
+					BitmapEngine.getInstance().getMainHandler().postDelayed(this, mTimeoutPolicy.getStallWindow());
+				}
+			}
+		};
+		Handler handler = BitmapEngine.getInstance().getMainHandler();
+		if (mTimeoutPolicy.getDeadline() > 0) {
+			handler.postDelayed(deadline, mTimeoutPolicy.getDeadline());
+		}
 
 		try {
 			mGetRequest = new HttpGet(mUrl);
+			event(EventListener.CONNECT);
+			connected = true;
+			long start = System.nanoTime();
+			checkAborted();
 			HttpResponse response = client.execute(mGetRequest);
 			int statusCode = response.getStatusLine().getStatusCode();
 
 			if (statusCode == HttpStatus.SC_TEMPORARY_REDIRECT || statusCode == HttpStatus.SC_MOVED_PERMANENTLY ||
 					statusCode == HttpStatus.SC_MOVED_TEMPORARILY) {
-				statusCode = resolveUrl();
+				statusCode = resolveUrl(1);
 
 				if (statusCode == HttpStatus.SC_OK) {
 					mGetRequest = new HttpGet(mUrl);
+					start = System.nanoTime();
+					checkAborted();
 					response = client.execute(mGetRequest);
 					statusCode = response.getStatusLine().getStatusCode();
 				}
 			}
 
 			if (isCancelled()) {
-				Log.i(TAG, "Download of " + mUrl + " was cancelled");
+				if (Logger.isLoggable(Log.INFO)) {
+					Logger.i(TAG, "Download of " + mUrl + " was cancelled");
+				}
 				finished = false;
 			} else if (statusCode != HttpStatus.SC_OK) {
-				Log.w(TAG, "Error " + statusCode + " while retrieving bitmap from " + mUrl);
+				if (Logger.isLoggable(Log.WARN)) {
+					Logger.w(TAG, "Error " + statusCode + " while retrieving bitmap from " + mUrl);
+				}
+				mFailure = NegativeCache.getFailure(statusCode);
 				finished = false;
 			} else {
 				if (isCancelled()) {
@@ -170,23 +334,54 @@ public class BitmapDownloaderTask extends AsyncTask<String, Void, Boolean> {
 				HttpEntity entity = response.getEntity();
 				if (entity != null) {
 					InputStream inputStream = null;
+					File temp = null;
 					try {
 						inputStream = entity.getContent();
 						if (isCancelled()) {
 							return false;
 						}
-						FileOutputStream fos = mContext.openFileOutput(filename, Context.MODE_PRIVATE);
+						long expires = getExpires(response);
+						temp = mDiskCache.createTempFile(filename);
+						FileOutputStream fos = new FileOutputStream(temp);
+						// hash the content as it arrives, so that identical images
+						// downloaded from different URLs are only stored once
+						MessageDigest digest = MessageDigest.getInstance("SHA-256");
 
 						byte[] buffer = new byte[1024];
 						int len = 0;
-						while (!isCancelled() && (len = inputStream.read(buffer)) > 0) {
-							fos.write(buffer, 0, len);
+						long bytes = 0;
+						long firstByte = 0;
+						if (mTimeoutPolicy.getMinBytesPerSecond() > 0) {
+							handler.postDelayed(watchdog, mTimeoutPolicy.getStallWindow());
+						}
+						try {
+							while (!isCancelled() && (len = inputStream.read(buffer)) > 0) {
+								if (bytes == 0) {
+									firstByte = System.nanoTime() - start;
+									event(EventListener.FIRST_BYTE);
+								}
+								bytes += len;
+								mBytesRead = bytes;
+								fos.write(buffer, 0, len);
+								digest.update(buffer, 0, len);
+							}
+						} finally {
+							fos.close();
 						}
-						fos.close();
 						if (isCancelled()) {
 							return false;
 						}
+						event(EventListener.BODY_COMPLETE);
+						complete = true;
+						long total = System.nanoTime() - start;
+						mConcurrencyController.onDownloaded(bytes, firstByte, total);
+						mStatsRecorder.onDownloaded(bytes, firstByte, total);
+						finished = mDiskCache.commit(filename, temp, Utilities.toHex(digest.digest()), expires);
+						temp = null;
 					} finally {
+						if (temp != null) {
+							temp.delete();
+						}
 						if (inputStream != null) {
 							inputStream.close();
 						}
@@ -194,21 +389,108 @@ public class BitmapDownloaderTask extends AsyncTask<String, Void, Boolean> {
 					}
 				}
 			}
+		} catch (NoSuchAlgorithmException e) {
+			finished = false;
+			if (Logger.isLoggable(Log.WARN)) {
+				Logger.w(TAG, "Error while retrieving bitmap from " + mUrl, e);
+			}
 		} catch (IllegalArgumentException e) {
+			// the URL is malformed, and always will be
+			mFailure = NegativeCache.FAILURE_CLIENT_ERROR;
 			finished = false;
-			Log.w(TAG, "Error while retrieving bitmap from " + mUrl, e);
+			if (Logger.isLoggable(Log.WARN)) {
+				Logger.w(TAG, "Error while retrieving bitmap from " + mUrl, e);
+			}
 		} catch (FileNotFoundException e) {
 			mGetRequest.abort();
 			finished = false;
-			Log.w(TAG, "Error while retrieving bitmap from " + mUrl, e);
+			if (Logger.isLoggable(Log.WARN)) {
+				Logger.w(TAG, "Error while retrieving bitmap from " + mUrl, e);
+			}
 		} catch (IOException e) {
 			mGetRequest.abort();
 			finished = false;
-			Log.w(TAG, "Error while retrieving bitmap from " + mUrl, e);
+			if (!isCancelled()) {
+				mConcurrencyController.onFailed();
+				mFailure = NegativeCache.FAILURE_NETWORK;
+			}
+			if (Logger.isLoggable(Log.WARN)) {
+				Logger.w(TAG, "Error while retrieving bitmap from " + mUrl, e);
+			}
 		} finally {
+			handler.removeCallbacks(deadline);
+			handler.removeCallbacks(watchdog);
+			if (mTimedOut && Logger.isLoggable(Log.WARN)) {
+				Logger.w(TAG, "Download of " + mUrl + " passed its deadline of " + mTimeoutPolicy.getDeadline() + "ms");
+			} else if (mStalled && Logger.isLoggable(Log.WARN)) {
+				Logger.w(TAG, "Download of " + mUrl + " stalled at " + mBytesRead + " bytes");
+			}
 			mGetRequest = null;
 			client.close();
+			if (connected && !complete) {
+				event(EventListener.DOWNLOAD_ABORTED);
+			}
 		}
 		return finished;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Works out when the response stops being fresh, using Cache-Control max-age
+	 * first, then Expires, then a tenth of the time since Last-Modified.
+	 * Responses that must not be cached expire straight away, so they are only
+	 * ever served by a policy that accepts stale entries.
+	 * 
+	 * @return the expiry time in milliseconds since the epoch
+	 */
+	private static long getExpires(HttpResponse response) {
+		long now = System.currentTimeMillis();
+		Header[] cacheControls = response.getHeaders("Cache-Control");
+		for (Header cacheControl : cacheControls) {
+			for (HeaderElement element : cacheControl.getElements()) {
+				String name = element.getName();
+				if ("no-store".equalsIgnoreCase(name) || "no-cache".equalsIgnoreCase(name)) {
+					return now;
+				}
+				if ("max-age".equalsIgnoreCase(name) && element.getValue() != null) {
+					try {
+						long age = 0;
+						Header ageHeader = response.getFirstHeader("Age");
+						if (ageHeader != null) {
+							age = Long.parseLong(ageHeader.getValue().trim());
+						}
+						return now + (Long.parseLong(element.getValue().trim()) - age) * 1000;
+					} catch (NumberFormatException e) {
+						return now;
+					}
+				}
+			}
+		}
+
+		Date date = parseDate(response.getFirstHeader("Date"));
+		long serverNow = date != null ? date.getTime() : now;
+		Header expiresHeader = response.getFirstHeader("Expires");
+		if (expiresHeader != null) {
+			Date expires = parseDate(expiresHeader);
+			// an invalid date, such as "0", means already expired
+			// use the server's clock to work out the lifetime, as the device's clock
+			// may be wrong
+			return expires != null ? now + expires.getTime() - serverNow : now;
+		}
+		Date lastModified = parseDate(response.getFirstHeader("Last-Modified"));
+		if (lastModified != null && lastModified.getTime() < serverNow) {
+			return now + (serverNow - lastModified.getTime()) / 10;
+		}
+		return now + DEFAULT_FRESHNESS_LIFETIME;
+	}
+
+	private static Date parseDate(Header header) {
+		if (header == null) {
+			return null;
+		}
+		try {
+			return DateUtils.parseDate(header.getValue());
+		} catch (DateParseException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * The parts of the downloader that are shared by the whole process: the memory
+ * cache, the download scheduler, the threads downloads and disk loads run on,
+ * the batching of work for the main thread, the groups requests are tagged
+ * with, the URLs and hosts that recently failed and the stats. Every {@link BitmapDownloader} uses the same engine, so screens showing
+ * the same images share one copy of each bitmap and never download a URL twice
+ * at the same time.
+ */
+class BitmapEngine {
+
+	// disk reads are short, and more threads would only make them seek against
+	// each other
+	private static final int IO_THREADS = 2;
+
+	private static BitmapEngine sInstance;
+
+	private final BitmapCache mBitmapCache = new BitmapCache();
+	private final DownloadScheduler mScheduler = new DownloadScheduler(5);
+	private final ConcurrencyController mConcurrencyController = new ConcurrencyController(mScheduler);
+	private final Executor mNetworkExecutor;
+	// reads cached files, fed from the main thread so its queue is not bounded.
+	// Cancelled reads are taken off the queue instead
+	private final ThreadPoolExecutor mIoExecutor;
+	// decodes the files read by the I/O threads
+	private final Executor mDecodeExecutor;
+	private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+	private final FrameBatcher mFrameBatcher = new FrameBatcher();
+	private final StatsRecorder mStatsRecorder = new StatsRecorder();
+	private final NegativeCache mNegativeCache = new NegativeCache();
+	private final CircuitBreaker mCircuitBreaker = new CircuitBreaker();
+	// the requests in progress in each group, only touched on the main thread.
+	// Requests are held weakly, so one that is dropped without finishing does
+	// not stay here
+	private final HashMap<Object, WeakHashMap<BitmapDownloader.Download, Boolean>> mGroups = new HashMap<Object, WeakHashMap<BitmapDownloader.Download, Boolean>>();
+	private final HashSet<Object> mPausedGroups = new HashSet<Object>();
+
+	static synchronized BitmapEngine getInstance() {
+		if (sInstance == null) {
+			sInstance = new BitmapEngine();
+		}
+		return sInstance;
+	}
+
+	private BitmapEngine() {
+		// the scheduler limits how many downloads run at once, so the pool only
+		// needs to keep idle threads around for a while
+		mNetworkExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), newThreadFactory(
+				"BitmapDownloader network #", Process.THREAD_PRIORITY_DEFAULT));
+		mIoExecutor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), newThreadFactory(
+				"BitmapDownloader io #", Process.THREAD_PRIORITY_BACKGROUND));
+		int cores = Runtime.getRuntime().availableProcessors();
+		// a full decode queue makes the I/O thread handing over a file wait for
+		// room, rather than reading more files than can be decoded
+		mDecodeExecutor = new ThreadPoolExecutor(cores, cores, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(cores * 2), newThreadFactory(
+				"BitmapDownloader decode #", Process.THREAD_PRIORITY_BACKGROUND), new RejectedExecutionHandler() {
+			@Override
+			public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+				try {
+					executor.getQueue().put(runnable);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RejectedExecutionException(e);
+				}
+			}
+		});
+	}
+
+	private static ThreadFactory newThreadFactory(final String name, final int priority) {
+		return new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				return new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(priority);
+						runnable.run();
+					}
+				}, name + mCount.getAndIncrement());
+			}
+		};
+	}
+
+	BitmapCache getBitmapCache() {
+		return mBitmapCache;
+	}
+
+	DownloadScheduler getScheduler() {
+		return mScheduler;
+	}
+
+	ConcurrencyController getConcurrencyController() {
+		return mConcurrencyController;
+	}
+
+	Executor getNetworkExecutor() {
+		return mNetworkExecutor;
+	}
+
+	Executor getIoExecutor() {
+		return mIoExecutor;
+	}
+
+	/**
+	 * Takes a read that has not started yet off the I/O queue, so that the
+	 * reads of images scrolled past do not pile up in front of the ones in view.
+	 */
+	void removeIoTask(Runnable task) {
+		mIoExecutor.remove(task);
+	}
+
+	Executor getDecodeExecutor() {
+		return mDecodeExecutor;
+	}
+
+	FrameBatcher getFrameBatcher() {
+		return mFrameBatcher;
+	}
+
+	StatsRecorder getStatsRecorder() {
+		return mStatsRecorder;
+	}
+
+	NegativeCache getNegativeCache() {
+		return mNegativeCache;
+	}
+
+	CircuitBreaker getCircuitBreaker() {
+		return mCircuitBreaker;
+	}
+
+	Handler getMainHandler() {
+		return mMainHandler;
+	}
+
+	void addToGroup(Object group, BitmapDownloader.Download download) {
+		WeakHashMap<BitmapDownloader.Download, Boolean> downloads = mGroups.get(group);
+		if (downloads == null) {
+			removeEmptyGroups();
+			downloads = new WeakHashMap<BitmapDownloader.Download, Boolean>();
+			mGroups.put(group, downloads);
+		}
+		downloads.put(download, Boolean.TRUE);
+	}
+
+	void removeFromGroup(Object group, BitmapDownloader.Download download) {
+		WeakHashMap<BitmapDownloader.Download, Boolean> downloads = mGroups.get(group);
+		if (downloads != null) {
+			downloads.remove(download);
+			if (downloads.isEmpty()) {
+				mGroups.remove(group);
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the requests in progress in group
+	 */
+	List<BitmapDownloader.Download> getGroup(Object group) {
+		WeakHashMap<BitmapDownloader.Download, Boolean> downloads = mGroups.get(group);
+		if (downloads == null) {
+			return new ArrayList<BitmapDownloader.Download>();
+		}
+		if (downloads.isEmpty()) {
+			mGroups.remove(group);
+		}
+		return new ArrayList<BitmapDownloader.Download>(downloads.keySet());
+	}
+
+	/**
+	 * Forgets the groups whose requests were all dropped without finishing, so
+	 * that their tags, which may be activities, are not held on to.
+	 */
+	private void removeEmptyGroups() {
+		Iterator<WeakHashMap<BitmapDownloader.Download, Boolean>> groups = mGroups.values().iterator();
+		while (groups.hasNext()) {
+			if (groups.next().isEmpty()) {
+				groups.remove();
+			}
+		}
+	}
+
+	void setGroupPaused(Object group, boolean paused) {
+		if (paused) {
+			mPausedGroups.add(group);
+		} else {
+			mPausedGroups.remove(group);
+		}
+	}
+
+	boolean isGroupPaused(Object group) {
+		return group != null && mPausedGroups.contains(group);
+	}
+
+	static boolean isMainThread() {
+		return Looper.myLooper() == Looper.getMainLooper();
+	}
+
+	/**
+	 * Runs runnable on the main thread, straight away if this is the main thread.
+	 */
+	void runOnMainThread(Runnable runnable) {
+		if (isMainThread()) {
+			runnable.run();
+		} else {
+			mMainHandler.post(runnable);
+		}
+	}
+}
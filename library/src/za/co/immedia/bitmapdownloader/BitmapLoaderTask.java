@@ -27,26 +27,75 @@
 
 package za.co.immedia.bitmapdownloader;
 
-import android.content.Context;
+import android.annotation.SuppressLint;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.os.AsyncTask;
-import android.util.Log;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
 import android.widget.ImageView;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.List;
 
-public class BitmapLoaderTask extends AsyncTask<String, Void, Bitmap> {
+/**
+ * Loads an image from the disk cache in two stages: the file is read on one of
+ * the engine's few I/O threads, then decoded on one of its decode threads,
+ * which there are as many of as there are cores. The decode threads only take
+ * a few files at a time, so reading stalls while they catch up rather than
+ * filling memory with files waiting to be decoded.
+ * <p>
+ * {@link Transformation}s run on the decode thread. Their results are cached
+ * under the content they were made from and the keys of the transformations,
+ * and can also be stored on disk so they are not made again next time.
+ * </p>
+ */
+public class BitmapLoaderTask {
 	private static final String TAG = BitmapLoaderTask.class.getCanonicalName();
 
+	// the size images are sampled down to when they are decoded
+	static final int MAX_WIDTH = 1024;
+	static final int MAX_HEIGHT = 1024;
+
 	private WeakReference<ImageView> imageViewReference;
-	private Context mContext;
+	private DiskCache mDiskCache;
+	private BitmapCache mBitmapCache;
 	private BitmapLoadListener mListener;
+	private final BitmapEngine mEngine = BitmapEngine.getInstance();
 	public String mUrl;
+	private volatile String mContentKey;
+	// mContentKey and the size it is decoded at, as the same image may be
+	// decoded at several sizes
+	private volatile String mMemoryKey;
+	private volatile boolean mCancelled;
 	private boolean mError;
+	private final long mMaxStale;
+	private final List<Transformation> mTransformations;
+	// added to content keys of transformed images, null if there are no
+	// transformations
+	private final String mTransformationKey;
+	private final boolean mStoreTransformed;
+	// the size images are sampled down to
+	private final int mReqWidth;
+	private final int mReqHeight;
+	// the disk cache key of the downloaded image
+	private String mSourceKey;
+	// the file read by the I/O stage, waiting to be decoded
+	private byte[] mData;
+	// the disk cache content key of mData
+	private String mDataKey;
+	// true if mData is an image that has already been transformed
+	private boolean mDataTransformed;
+	// a cached bitmap of the downloaded image, waiting to be transformed
+	private Bitmap mSource;
+	// told of each stage, may be null
+	private BitmapDownloader.Download mDownload;
 
 	public interface BitmapLoadListener {
 		public void notFound();
@@ -58,10 +107,128 @@ public class BitmapLoaderTask extends AsyncTask<String, Void, Bitmap> {
 		public void onLoadCancelled();
 	}
 
+	private final Runnable mRead = new Runnable() {
+		@Override
+		public void run() {
+			event(EventListener.DISK_LOOKUP_START);
+			boolean found = read();
+			event(EventListener.DISK_LOOKUP_END);
+			if (found) {
+				// waits here if the decode threads are behind
+				mEngine.getDecodeExecutor().execute(mDecode);
+			}
+		}
+	};
+
+	private final Runnable mDecode = new Runnable() {
+		@Override
+		public void run() {
+			decode();
+		}
+	};
+
 	public BitmapLoaderTask(ImageView imageView, BitmapLoadListener listener) {
+		this(imageView, listener, null, 0);
+	}
+
+	/**
+	 * @param bitmapCache
+	 *          if not null, checked for a bitmap with the same content before
+	 *          decoding the file
+	 * @param maxStale
+	 *          how long after expiring a cached file may still be loaded, or
+	 *          Long.MAX_VALUE to load it however old it is
+	 */
+	public BitmapLoaderTask(ImageView imageView, BitmapLoadListener listener, BitmapCache bitmapCache, long maxStale) {
+		this(imageView, listener, bitmapCache, maxStale, Collections.<Transformation> emptyList(), false, MAX_WIDTH, MAX_HEIGHT);
+	}
+
+	/**
+	 * @param transformations
+	 *          applied in order to the decoded image
+	 * @param storeTransformed
+	 *          store transformed images in the disk cache
+	 * @param reqWidth
+	 *          the width to sample images down to, at most {@link #MAX_WIDTH}
+	 * @param reqHeight
+	 *          the height to sample images down to, at most {@link #MAX_HEIGHT}
+	 */
+	public BitmapLoaderTask(ImageView imageView, BitmapLoadListener listener, BitmapCache bitmapCache, long maxStale,
+			List<Transformation> transformations, boolean storeTransformed, int reqWidth, int reqHeight) {
 		imageViewReference = new WeakReference<ImageView>(imageView);
-		mContext = imageView.getContext().getApplicationContext();
+		mDiskCache = DiskCache.getInstance(imageView.getContext());
+		mBitmapCache = bitmapCache;
 		mListener = listener;
+		mMaxStale = maxStale;
+		mTransformations = transformations;
+		mTransformationKey = getTransformationKey(transformations);
+		mStoreTransformed = storeTransformed;
+		mReqWidth = Math.min(reqWidth, MAX_WIDTH);
+		mReqHeight = Math.min(reqHeight, MAX_HEIGHT);
+	}
+
+	void setDownload(BitmapDownloader.Download download) {
+		mDownload = download;
+	}
+
+	private void event(int stage) {
+		BitmapDownloader.Download download = mDownload;
+		if (download != null) {
+			download.event(stage);
+		}
+	}
+
+	/**
+	 * @return what is added to the key of an image to make the key of the image
+	 *         after transformations, or null if there are none
+	 */
+	static String getTransformationKey(List<Transformation> transformations) {
+		if (transformations.isEmpty()) {
+			return null;
+		}
+		StringBuilder key = new StringBuilder();
+		for (Transformation transformation : transformations) {
+			key.append(key.length() == 0 ? '#' : '|').append(transformation.getKey());
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return the memory cache key of the bitmap that was loaded, which is
+	 *         shared by every URL that serves the same image at the same size
+	 */
+	public String getMemoryKey() {
+		return mMemoryKey;
+	}
+
+	/**
+	 * @return the memory cache key of contentKey decoded for width and height
+	 */
+	static String getMemoryKey(String contentKey, int width, int height) {
+		return contentKey + '@' + Math.min(width, MAX_WIDTH) + 'x' + Math.min(height, MAX_HEIGHT);
+	}
+
+	/**
+	 * Starts loading the image cached under url. The listener is called on the
+	 * main thread.
+	 */
+	public void execute(String url) {
+		mUrl = url;
+		mEngine.getIoExecutor().execute(mRead);
+	}
+
+	/**
+	 * Stops the load at the next stage, or takes it off the I/O queue if it has
+	 * not been read yet. The listener is not called once the load has been
+	 * cancelled.
+	 */
+	public void cancel() {
+		mCancelled = true;
+		mEngine.removeIoTask(mRead);
+	}
+
+	public boolean isCancelled() {
+		return mCancelled;
 	}
 
 	/**
@@ -80,7 +247,7 @@ public class BitmapLoaderTask extends AsyncTask<String, Void, Bitmap> {
 	 * 
 	 * @return the calculated inSampleSize
 	 */
-	private int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+	static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
 		// Raw height and width of image
 		final int height = options.outHeight;
 		final int width = options.outWidth;
@@ -96,44 +263,331 @@ public class BitmapLoaderTask extends AsyncTask<String, Void, Bitmap> {
 		return inSampleSize;
 	}
 
-	@Override
-	protected Bitmap doInBackground(String... params) {
-		mUrl = params[0];
-		if (mUrl == null) {
-			return null;
+	/**
+	 * The I/O stage, on an I/O thread.
+	 * 
+	 * @return true if the image should be decoded, false if the load has
+	 *         finished
+	 */
+	private boolean read() {
+		if (mUrl == null || isCancelled()) {
+			finish(null);
+			return false;
 		}
 		String filename = Utilities.md5(mUrl);
-		Bitmap bitmap = null;
+		String contentKey = filename != null ? mDiskCache.getContentKey(filename, mMaxStale) : null;
+		if (contentKey == null) {
+			finish(null);
+			return false;
+		}
+		mSourceKey = filename;
+		// transformed images are cached under the content they were made from, so
+		// they change when it does
+		mContentKey = mTransformationKey != null ? contentKey + mTransformationKey : contentKey;
+		mMemoryKey = getMemoryKey(mContentKey, mReqWidth, mReqHeight);
+		// another URL may already have loaded the same image at this size
+		if (mBitmapCache != null) {
+			Bitmap bitmap = mBitmapCache.getContent(mMemoryKey);
+			if (bitmap != null) {
+				finish(bitmap);
+				return false;
+			}
+		}
+		if (mTransformationKey != null) {
+			String storedKey = mStoreTransformed ? mDiskCache.getContentKey(Utilities.md5(mContentKey), Long.MAX_VALUE) : null;
+			if (storedKey != null) {
+				try {
+					mData = readFile(mDiskCache.getContentFile(storedKey));
+					mDataKey = storedKey;
+					mDataTransformed = true;
+				} catch (IOException e) {
+					// make it again from the downloaded image
+				}
+			} else if (mBitmapCache != null) {
+				mSource = mBitmapCache.getContent(getMemoryKey(contentKey, mReqWidth, mReqHeight));
+			}
+		}
+		if (mData == null && mSource == null) {
+			try {
+				mData = readFile(mDiskCache.getContentFile(contentKey));
+				mDataKey = contentKey;
+			} catch (FileNotFoundException e) {
+				Logger.w(TAG, "Bitmap is not cached on disk. Redownloading.", e);
+			} catch (IOException e) {
+				Logger.w(TAG, "Bitmap is not cached on disk. Redownloading.", e);
+			}
+		}
+		if ((mData == null && mSource == null) || isCancelled()) {
+			mData = null;
+			mSource = null;
+			finish(null);
+			return false;
+		}
+		return true;
+	}
+
+	// the decode stage, on a decode thread
+	private void decode() {
+		byte[] data = mData;
+		Bitmap source = mSource;
+		mData = null;
+		mSource = null;
 		if (isCancelled()) {
+			finish(null);
+			return;
+		}
+		event(EventListener.DECODE_START);
+		long start = System.nanoTime();
+		Bitmap bitmap = decode(data, source);
+		long end = System.nanoTime();
+		event(EventListener.DECODE_END);
+		if (bitmap != null) {
+			mEngine.getStatsRecorder().onDecoded((long) bitmap.getWidth() * bitmap.getHeight(), end - start);
+		}
+		finish(bitmap);
+	}
+
+	/**
+	 * Decodes and transforms the image, and stores it if it was transformed.
+	 * 
+	 * @return the bitmap, or null if it could not be made
+	 */
+	private Bitmap decode(byte[] data, Bitmap source) {
+		Bitmap bitmap;
+		if (mTransformationKey == null || mDataTransformed) {
+			bitmap = decodeBytes(data, mReqWidth, mReqHeight);
+		} else {
+			try {
+				bitmap = transform(data, source);
+			} catch (RuntimeException e) {
+				Logger.w(TAG, "Unable to transform the bitmap", e);
+				mError = true;
+				return null;
+			}
+			if (bitmap != null && mStoreTransformed && !isCancelled()) {
+				store(bitmap);
+			}
+		}
+		if (bitmap == null) {
+			Logger.w(TAG, "The file specified is corrupt.");
+			if (mDataKey != null) {
+				mDiskCache.removeContent(mDataKey);
+			}
+			mError = true;
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Decodes data, unless source is given, and applies the transformations. A
+	 * {@link CenterCrop} at the start is done while decoding.
+	 * 
+	 * @return the transformed bitmap, or null if data is corrupt
+	 */
+	private Bitmap transform(byte[] data, Bitmap source) {
+		Bitmap bitmap = source;
+		int first = 0;
+		if (bitmap == null) {
+			Transformation transformation = mTransformations.get(0);
+			if (transformation instanceof CenterCrop) {
+				bitmap = decodeCropped(data, (CenterCrop) transformation);
+				first = 1;
+			} else {
+				bitmap = decodeBytes(data, mReqWidth, mReqHeight);
+			}
+			if (bitmap == null) {
+				return null;
+			}
+		}
+		// only bitmaps made here may be recycled, the source may be in use
+		boolean recyclable = source == null;
+		for (int i = first; i < mTransformations.size(); i++) {
+			Bitmap transformed = mTransformations.get(i).transform(bitmap);
+			if (transformed != bitmap) {
+				if (recyclable) {
+					bitmap.recycle();
+				}
+				bitmap = transformed;
+				recyclable = true;
+			}
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Stores a transformed image in the disk cache, where it expires with the
+	 * image it was made from.
+	 */
+	private void store(Bitmap bitmap) {
+		String key = Utilities.md5(mContentKey);
+		File temp = null;
+		FileOutputStream out = null;
+		try {
+			temp = mDiskCache.createTempFile(key);
+			out = new FileOutputStream(temp);
+			// keep the transparency of rounded corners and the like
+			boolean compressed = bitmap.compress(bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG, 90, out);
+			out.close();
+			out = null;
+			if (compressed && mDiskCache.commit(key, temp, key, mDiskCache.getExpires(mSourceKey))) {
+				temp = null;
+			}
+		} catch (IOException e) {
+			Logger.w(TAG, "Unable to store the transformed bitmap", e);
+		} finally {
+			Utilities.closeQuietly(out);
+			if (temp != null) {
+				temp.delete();
+			}
+		}
+	}
+
+	private void finish(final Bitmap bitmap) {
+		mEngine.runOnMainThread(new Runnable() {
+			@Override
+			public void run() {
+				if (!isCancelled()) {
+					onPostExecute(bitmap);
+				}
+			}
+		});
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		FileInputStream local = null;
+		try {
+			local = new FileInputStream(file);
+			long length = file.length();
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("The file is too large to load: " + length);
+			}
+			byte[] data = new byte[(int) length];
+			int offset = 0;
+			int read;
+			while (offset < data.length && (read = local.read(data, offset, data.length - offset)) != -1) {
+				offset += read;
+			}
+			if (offset < data.length) {
+				throw new IOException("The file was truncated while it was read");
+			}
+			return data;
+		} finally {
+			Utilities.closeQuietly(local);
+		}
+	}
+
+	/**
+	 * Decodes a file, sampled down to roughly the required size.
+	 * 
+	 * @return the decoded bitmap, or null if the file is corrupt
+	 */
+	static Bitmap decodeFile(File file, int reqWidth, int reqHeight) throws IOException {
+		FileInputStream local = null;
+		try {
+			local = new FileInputStream(file);
+			final BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inJustDecodeBounds = true;
+			BitmapFactory.decodeFileDescriptor(local.getFD(), null, options);
+
+			options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+			options.inJustDecodeBounds = false;
+			return BitmapFactory.decodeFileDescriptor(local.getFD(), null, options);
+		} finally {
+			Utilities.closeQuietly(local);
+		}
+	}
+
+	/**
+	 * Decodes a file that has been read into memory, sampled down to roughly the
+	 * required size.
+	 * 
+	 * @return the decoded bitmap, or null if the data is corrupt
+	 */
+	static Bitmap decodeBytes(byte[] data, int reqWidth, int reqHeight) {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+		options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+		options.inJustDecodeBounds = false;
+		return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+	}
+
+	/**
+	 * Decodes the part of an image that crop keeps, sampled down to roughly the
+	 * size of the crop, and scales it to exactly that size. From Gingerbread MR1
+	 * on only that part of the image is decoded, unless the region decoder does
+	 * not support the format, such as GIF, in which case the whole image is
+	 * decoded and cropped.
+	 * 
+	 * @return the decoded bitmap, or null if the data is corrupt
+	 */
+	@SuppressLint("NewApi")
+	static Bitmap decodeCropped(byte[] data, CenterCrop crop) {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
 			return null;
 		}
-		if (filename != null) {
+		Rect region = crop.getCrop(options.outWidth, options.outHeight);
+		int regionWidth = region.right - region.left;
+		int regionHeight = region.bottom - region.top;
+		// the decoders only sample by powers of two
+		int sampleSize = 1;
+		while (regionWidth / (sampleSize * 2) >= crop.getWidth() && regionHeight / (sampleSize * 2) >= crop.getHeight()) {
+			sampleSize *= 2;
+		}
+		options.inSampleSize = sampleSize;
+		options.inJustDecodeBounds = false;
+
+		Bitmap bitmap = null;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1) {
 			try {
-				FileInputStream local = mContext.openFileInput(filename);
-				final BitmapFactory.Options options = new BitmapFactory.Options();
-				options.inJustDecodeBounds = true;
-				BitmapFactory.decodeFileDescriptor(local.getFD(), null, options);
-
-				options.inSampleSize = calculateInSampleSize(options, 1024, 1024);
-				options.inJustDecodeBounds = false;
-				bitmap = BitmapFactory.decodeFileDescriptor(local.getFD(), null, options);
-				if (bitmap == null) {
-					Log.w(TAG, "The file specified is corrupt.");
-					mContext.deleteFile(filename);
-					mError = true;
-					throw new FileNotFoundException("The file specified is corrupt.");
+				BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+				if (decoder != null) {
+					try {
+						bitmap = decoder.decodeRegion(region, options);
+					} finally {
+						decoder.recycle();
+					}
 				}
-			} catch (FileNotFoundException e) {
-				Log.w(TAG, "Bitmap is not cached on disk. Redownloading.", e);
 			} catch (IOException e) {
-				Log.w(TAG, "Bitmap is not cached on disk. Redownloading.", e);
+				// not a format the region decoder handles
 			}
 		}
+		if (bitmap == null) {
+			Bitmap sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+			if (sampled == null) {
+				return null;
+			}
+			int left = Math.min(region.left / sampleSize, sampled.getWidth() - 1);
+			int top = Math.min(region.top / sampleSize, sampled.getHeight() - 1);
+			int width = Math.max(1, Math.min(regionWidth / sampleSize, sampled.getWidth() - left));
+			int height = Math.max(1, Math.min(regionHeight / sampleSize, sampled.getHeight() - top));
+			bitmap = Bitmap.createBitmap(sampled, left, top, width, height);
+			if (bitmap != sampled) {
+				sampled.recycle();
+			}
+		}
+		if (bitmap != null && (bitmap.getWidth() != crop.getWidth() || bitmap.getHeight() != crop.getHeight())) {
+			Bitmap scaled = Bitmap.createScaledBitmap(bitmap, crop.getWidth(), crop.getHeight(), true);
+			if (scaled != bitmap) {
+				bitmap.recycle();
+			}
+			bitmap = scaled;
+		}
 		return bitmap;
 	}
 
-	@Override
-	protected void onPostExecute(Bitmap bitmap) {
+	/**
+	 * @return true if the file was read but could not be made into a bitmap
+	 */
+	boolean hasFailed() {
+		return mError;
+	}
+
+	private void onPostExecute(Bitmap bitmap) {
 		if (bitmap == null && !mError && !isCancelled()) {
 			mListener.notFound();
 		} else {
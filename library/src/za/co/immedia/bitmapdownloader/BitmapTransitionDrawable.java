@@ -92,6 +92,9 @@ public class BitmapTransitionDrawable extends LayerDrawable implements Drawable.
 	private int mAlpha = 0;
 	private boolean mCrossFade;
 	private BitmapTransitionCallback mTransitionCallback;
+	// true if a TransitionAnimator moves the transition on, instead of the
+	// drawable invalidating itself
+	private boolean mStepped;
 
 	private Handler mHandler;
 
@@ -110,19 +113,50 @@ public class BitmapTransitionDrawable extends LayerDrawable implements Drawable.
 	 *          The length of the transition in milliseconds
 	 */
 	public void startTransition(int durationMillis) {
+		startTransition(durationMillis, false);
+	}
+
+	/**
+	 * Begin the second layer on top of the first layer.
+	 * 
+	 * @param stepped
+	 *          true if a {@link TransitionAnimator} moves the transition on by
+	 *          calling {@link #step(long)} each frame
+	 */
+	void startTransition(int durationMillis, boolean stepped) {
+		mStepped = stepped;
 		mFrom = 0;
 		mTo = 255;
 		mAlpha = 0;
 		mDuration = mOriginalDuration = durationMillis;
 		mReverse = false;
-		mTransitionState = TRANSITION_STARTING;
+		if (stepped) {
+			mStartTimeMillis = SystemClock.uptimeMillis();
+			mTransitionState = TRANSITION_RUNNING;
+		} else {
+			mTransitionState = TRANSITION_STARTING;
+		}
+		invalidateSelf();
+	}
+
+	/**
+	 * Moves a transition started by a {@link TransitionAnimator} on to now.
+	 * 
+	 * @return true if the transition has finished
+	 */
+	boolean step(long now) {
+		float normalized = mDuration > 0 ? (float) (now - mStartTimeMillis) / mDuration : 1.0f;
+		normalized = Math.min(normalized, 1.0f);
+		mAlpha = (int) (mFrom + (mTo - mFrom) * normalized);
 		invalidateSelf();
+		return normalized >= 1.0f;
 	}
 
 	/**
 	 * Show only the first layer.
 	 */
 	public void resetTransition() {
+		mStepped = false;
 		mAlpha = 0;
 		mTransitionState = TRANSITION_NONE;
 		invalidateSelf();
@@ -138,6 +172,7 @@ public class BitmapTransitionDrawable extends LayerDrawable implements Drawable.
 	 *          The duration to use if no transition is running.
 	 */
 	public void reverseTransition(int duration) {
+		mStepped = false;
 		final long time = SystemClock.uptimeMillis();
 		// Animation is over
 		if (time - mStartTimeMillis > mDuration) {
@@ -178,7 +213,9 @@ public class BitmapTransitionDrawable extends LayerDrawable implements Drawable.
 			break;
 
 		case TRANSITION_RUNNING:
-			if (mStartTimeMillis >= 0) {
+			if (mStepped) {
+				done = false;
+			} else if (mStartTimeMillis >= 0) {
 				float normalized = (float) (SystemClock.uptimeMillis() - mStartTimeMillis) / mDuration;
 				done = normalized >= 1.0f;
 				normalized = Math.min(normalized, 1.0f);
@@ -223,7 +260,7 @@ public class BitmapTransitionDrawable extends LayerDrawable implements Drawable.
 			d.setAlpha(0xFF);
 		}
 
-		if (!done) {
+		if (!done && !mStepped) {
 			invalidateSelf();
 		}
 	}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+/**
+ * Decides whether an image may be served from the disk cache and whether it
+ * may be fetched from the network. Use {@link #DEFAULT} to honour the
+ * freshness lifetime sent by the server, {@link #CACHE_ONLY} to never touch
+ * the network, {@link #NETWORK_ONLY} to always fetch a new copy, or
+ * {@link #maxStale(long)} to accept entries that expired no longer than the
+ * given time ago.
+ */
+public class CachePolicy {
+
+	/**
+	 * Serve fresh entries from the cache, download everything else.
+	 */
+	public static final CachePolicy DEFAULT = new CachePolicy(true, true, 0);
+
+	/**
+	 * Serve whatever is in the cache, however old it is, and never download.
+	 */
+	public static final CachePolicy CACHE_ONLY = new CachePolicy(true, false, Long.MAX_VALUE);
+
+	/**
+	 * Ignore the caches and always download the image.
+	 */
+	public static final CachePolicy NETWORK_ONLY = new CachePolicy(false, true, 0);
+
+	private final boolean mCacheAllowed;
+	private final boolean mNetworkAllowed;
+	private final long mMaxStale;
+
+	private CachePolicy(boolean cacheAllowed, boolean networkAllowed, long maxStale) {
+		mCacheAllowed = cacheAllowed;
+		mNetworkAllowed = networkAllowed;
+		mMaxStale = maxStale;
+	}
+
+	/**
+	 * @param maxStaleMillis
+	 *          how long after expiring a cached entry may still be used
+	 * @return a policy that serves cached entries up to maxStaleMillis past
+	 *         their expiry, and downloads anything older
+	 */
+	public static CachePolicy maxStale(long maxStaleMillis) {
+		return new CachePolicy(true, true, Math.max(0, maxStaleMillis));
+	}
+
+	public boolean isCacheAllowed() {
+		return mCacheAllowed;
+	}
+
+	public boolean isNetworkAllowed() {
+		return mNetworkAllowed;
+	}
+
+	public long getMaxStale() {
+		return mMaxStale;
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import za.co.immedia.bitmapdownloader.BitmapCache.Usage;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Remembers which bitmaps were used most while the app was running, and decodes
+ * them into the memory cache on a low priority thread the next time it starts,
+ * so the first screen does not have to wait for them to be loaded one by one.
+ */
+class CacheWarmer implements Runnable {
+	private static final String TAG = CacheWarmer.class.getCanonicalName();
+
+	private static final String FILENAME = "bmd__warm_up";
+
+	private final Context mContext;
+	private final BitmapCache mBitmapCache;
+	private final long mMaxStale;
+
+	CacheWarmer(Context context, BitmapCache bitmapCache, long maxStale) {
+		mContext = context.getApplicationContext();
+		mBitmapCache = bitmapCache;
+		mMaxStale = maxStale;
+	}
+
+	/**
+	 * Writes the count most used bitmaps in the cache, along with the size they
+	 * were decoded at and the transformations applied to them. URLs have no
+	 * spaces, so the transformation key, which may, goes last.
+	 */
+	static void save(Context context, BitmapCache bitmapCache, int count) {
+		List<Usage> usages = bitmapCache.getMostUsed(count);
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(context.openFileOutput(FILENAME, Context.MODE_PRIVATE)));
+			for (Usage usage : usages) {
+				writer.write(usage.width + " " + usage.height + " " + usage.url);
+				if (usage.transformationKey != null) {
+					writer.write(" " + usage.transformationKey);
+				}
+				writer.newLine();
+			}
+		} catch (IOException e) {
+			Logger.w(TAG, "Unable to save the warm up list", e);
+		} finally {
+			Utilities.closeQuietly(writer);
+		}
+	}
+
+	void start() {
+		Thread thread = new Thread(this, "BitmapDownloader warm up");
+		thread.start();
+	}
+
+	@Override
+	public void run() {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+		DiskCache diskCache = DiskCache.getInstance(mContext);
+		long loadedBytes = 0;
+		for (Usage usage : read()) {
+			if (loadedBytes >= mBitmapCache.maxSize()) {
+				// anything more would just push out what has already been loaded
+				break;
+			}
+			String filename = Utilities.md5(usage.url);
+			String contentKey = filename != null ? diskCache.getContentKey(filename, mMaxStale) : null;
+			if (contentKey == null) {
+				continue;
+			}
+			// transformed images are only loaded if they were stored, as the
+			// transformations themselves are not known here
+			String fileKey = contentKey;
+			if (usage.transformationKey != null) {
+				contentKey += usage.transformationKey;
+				fileKey = diskCache.getContentKey(Utilities.md5(contentKey), Long.MAX_VALUE);
+				if (fileKey == null) {
+					continue;
+				}
+			}
+			String memoryKey = BitmapLoaderTask.getMemoryKey(contentKey, usage.width, usage.height);
+			if (mBitmapCache.containsContent(memoryKey)) {
+				continue;
+			}
+			try {
+				Bitmap bitmap = BitmapLoaderTask.decodeFile(diskCache.getContentFile(fileKey), usage.width, usage.height);
+				// the screen may have loaded it while this one was being decoded
+				if (bitmap != null && !mBitmapCache.containsContent(memoryKey)) {
+					mBitmapCache.addBitmap(usage.url, usage.transformationKey, memoryKey, bitmap, usage.width, usage.height);
+					loadedBytes += bitmap.getRowBytes() * bitmap.getHeight();
+				}
+			} catch (IOException e) {
+				if (Logger.isLoggable(Log.WARN)) {
+					Logger.w(TAG, "Unable to warm up " + usage.url, e);
+				}
+			}
+		}
+	}
+
+	private List<Usage> read() {
+		ArrayList<Usage> usages = new ArrayList<Usage>();
+		File file = mContext.getFileStreamPath(FILENAME);
+		if (!file.exists()) {
+			return usages;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(mContext.openFileInput(FILENAME)));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split(" ", 4);
+				if (parts.length >= 3) {
+					usages.add(new Usage(parts[2], parts.length == 4 ? parts[3] : null, Integer.parseInt(parts[0]), Integer.parseInt(parts[1])));
+				}
+			}
+		} catch (IOException e) {
+			Logger.w(TAG, "Unable to read the warm up list", e);
+		} catch (NumberFormatException e) {
+			Logger.w(TAG, "The warm up list is corrupt", e);
+		} finally {
+			Utilities.closeQuietly(reader);
+		}
+		return usages;
+	}
+}
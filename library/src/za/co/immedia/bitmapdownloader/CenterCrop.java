@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+
+/**
+ * Scales an image to fill the given size and crops off whatever sticks out on
+ * either side, like {@link android.widget.ImageView.ScaleType#CENTER_CROP}.
+ * When it is the first transformation of a request, the crop is done while the
+ * image is decoded, so the parts that are cropped off are never decoded at full
+ * size.
+ */
+public class CenterCrop implements Transformation {
+
+	private final int mWidth;
+	private final int mHeight;
+
+	public CenterCrop(int width, int height) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("The size must be positive: " + width + "x" + height);
+		}
+		mWidth = width;
+		mHeight = height;
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	@Override
+	public Bitmap transform(Bitmap source) {
+		if (source.getWidth() == mWidth && source.getHeight() == mHeight) {
+			return source;
+		}
+		Rect crop = getCrop(source.getWidth(), source.getHeight());
+		int cropWidth = crop.right - crop.left;
+		int cropHeight = crop.bottom - crop.top;
+		Matrix matrix = new Matrix();
+		matrix.setScale((float) mWidth / cropWidth, (float) mHeight / cropHeight);
+		return Bitmap.createBitmap(source, crop.left, crop.top, cropWidth, cropHeight, matrix, true);
+	}
+
+	/**
+	 * @return the largest part of an image of the given size, centred, that has
+	 *         the same aspect ratio as the crop
+	 */
+	Rect getCrop(int width, int height) {
+		int cropWidth = width;
+		int cropHeight = height;
+		// compare width / height against mWidth / mHeight without dividing
+		if ((long) width * mHeight > (long) height * mWidth) {
+			cropWidth = Math.max(1, (int) ((long) height * mWidth / mHeight));
+		} else {
+			cropHeight = Math.max(1, (int) ((long) width * mHeight / mWidth));
+		}
+		int left = (width - cropWidth) / 2;
+		int top = (height - cropHeight) / 2;
+		return new Rect(left, top, left + cropWidth, top + cropHeight);
+	}
+
+	@Override
+	public String getKey() {
+		return "centerCrop(" + mWidth + "x" + mHeight + ")";
+	}
+}
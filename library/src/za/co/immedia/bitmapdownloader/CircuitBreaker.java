@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.HashMap;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Stops downloads from a host that keeps failing. Once a host has failed
+ * {@link #DEFAULT_THRESHOLD} times in a row, with timeouts, dropped
+ * connections or 5xx responses, its circuit opens and requests for it fail
+ * straight away, leaving the download slots to hosts that work. After a while
+ * a single trial request is let through, while the others keep failing: if it
+ * fails the circuit opens again, and if it succeeds the circuit closes. A trial
+ * that never reports back is followed by another once the circuit has been
+ * open for as long again.
+ * <p>
+ * The breaker can be used from any thread.
+ * </p>
+ */
+class CircuitBreaker {
+
+	private static final String TAG = CircuitBreaker.class.getCanonicalName();
+
+	static final int DEFAULT_THRESHOLD = 5;
+	static final long DEFAULT_OPEN_MILLIS = 30 * 1000;
+
+	private static class Host {
+		// failures in a row
+		int failures;
+		// when the next trial request may be let through, 0 if the circuit is
+		// closed
+		long openUntil;
+	}
+
+	private final HashMap<String, Host> mHosts = new HashMap<String, Host>();
+	private int mThreshold = DEFAULT_THRESHOLD;
+	private long mOpenMillis = DEFAULT_OPEN_MILLIS;
+
+	/**
+	 * @param threshold
+	 *          how many failures in a row open the circuit of a host, 0 to
+	 *          never open it
+	 * @param openMillis
+	 *          how long requests fail straight away once it is open
+	 */
+	synchronized void setThreshold(int threshold, long openMillis) {
+		mThreshold = threshold;
+		mOpenMillis = openMillis;
+	}
+
+	/**
+	 * @return true if requests for host should fail without trying, which
+	 *         includes while a trial request is under way
+	 */
+	synchronized boolean isOpen(String host) {
+		Host state = mHosts.get(hostOf(host));
+		return state != null && state.openUntil > SystemClock.elapsedRealtime();
+	}
+
+	/**
+	 * Called just before a request for host is sent. Once the circuit has been
+	 * open long enough, this lets one request through as a trial and keeps the
+	 * circuit open for the others until it reports back.
+	 * 
+	 * @return true if the request may be sent
+	 */
+	synchronized boolean allowRequest(String host) {
+		Host state = mHosts.get(hostOf(host));
+		if (state == null || state.openUntil == 0) {
+			return true;
+		}
+		long now = SystemClock.elapsedRealtime();
+		if (state.openUntil > now) {
+			return false;
+		}
+		state.openUntil = now + mOpenMillis;
+		return true;
+	}
+
+	/**
+	 * Called when host answered, even if only to say it does not have the image.
+	 */
+	synchronized void onSuccess(String host) {
+		mHosts.remove(hostOf(host));
+	}
+
+	/**
+	 * Called when host could not be reached or had an error of its own.
+	 */
+	synchronized void onFailure(String host) {
+		if (mThreshold <= 0) {
+			return;
+		}
+		String key = hostOf(host);
+		Host state = mHosts.get(key);
+		if (state == null) {
+			state = new Host();
+			mHosts.put(key, state);
+		}
+		state.failures++;
+		// a trial request that fails opens the circuit again
+		if (state.failures >= mThreshold || state.openUntil != 0) {
+			if (state.openUntil == 0 && Logger.isLoggable(Log.WARN)) {
+				Logger.w(TAG, "Too many failures, not downloading from " + key + " for " + mOpenMillis + "ms");
+			}
+			state.openUntil = SystemClock.elapsedRealtime() + mOpenMillis;
+		}
+	}
+
+	private static String hostOf(String host) {
+		return host != null ? host : "";
+	}
+}
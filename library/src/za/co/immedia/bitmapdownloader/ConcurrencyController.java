@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Tunes how many downloads run at once from how fast they complete. Every
+ * download reports its size, its time to first byte and how long it took. Once
+ * as many downloads as the current limit have reported, the limit is raised by
+ * one (additive increase). It is cut by a quarter when the time to first byte
+ * grows well beyond the best seen, a sign that downloads are queueing behind
+ * each other, and halved when a download fails (multiplicative decrease). An
+ * increase that made the combined throughput worse is taken back.
+ * <p>
+ * The controller is off, and the limit fixed, until
+ * {@link #setAdaptive(int, int)} is called. It can be used from any thread.
+ * </p>
+ */
+public class ConcurrencyController {
+
+	// how many limit changes are remembered for getHistory()
+	private static final int HISTORY_SIZE = 32;
+	// the time to first byte, relative to the best seen, that counts as
+	// congestion
+	private static final int CONGESTION_FACTOR = 2;
+
+	/**
+	 * A change of the limit.
+	 */
+	public static class Change {
+		private final long mTime;
+		private final int mLimit;
+		private final String mReason;
+
+		Change(long time, int limit, String reason) {
+			mTime = time;
+			mLimit = limit;
+			mReason = reason;
+		}
+
+		/**
+		 * @return when the limit changed, in milliseconds since the epoch
+		 */
+		public long getTime() {
+			return mTime;
+		}
+
+		public int getLimit() {
+			return mLimit;
+		}
+
+		/**
+		 * @return why the limit changed, for example "increase" or "congestion"
+		 */
+		public String getReason() {
+			return mReason;
+		}
+
+		@Override
+		public String toString() {
+			return mLimit + " (" + mReason + ")";
+		}
+	}
+
+	private final DownloadScheduler mScheduler;
+	private final LinkedList<Change> mHistory = new LinkedList<Change>();
+	private boolean mAdaptive;
+	private int mMinLimit;
+	private int mMaxLimit;
+	private int mLimit;
+	// the shortest time to first byte seen, which drifts up if the network gets
+	// slower for good
+	private long mBaselineFirstByteNanos;
+	// what has been reported since the limit last changed
+	private int mRoundCount;
+	private long mRoundBytes;
+	private long mRoundFirstByteNanos;
+	private long mRoundMinFirstByteNanos;
+	private long mRoundTotalNanos;
+	private double mLastThroughput;
+	private boolean mLastChangeWasIncrease;
+
+	ConcurrencyController(DownloadScheduler scheduler) {
+		mScheduler = scheduler;
+		mLimit = scheduler.getMaxRunning();
+		mMinLimit = mMaxLimit = mLimit;
+	}
+
+	/**
+	 * Lets the limit move between minLimit and maxLimit, starting from the
+	 * current limit.
+	 */
+	public void setAdaptive(int minLimit, int maxLimit) {
+		synchronized (this) {
+			mAdaptive = true;
+			mMinLimit = Math.max(1, minLimit);
+			mMaxLimit = Math.max(mMinLimit, maxLimit);
+			startRound();
+			setLimit(Math.max(mMinLimit, Math.min(mMaxLimit, mLimit)), "adaptive");
+		}
+		applyLimit();
+	}
+
+	/**
+	 * Turns the controller off and fixes the limit.
+	 */
+	public void setFixed(int limit) {
+		synchronized (this) {
+			mAdaptive = false;
+			mMinLimit = mMaxLimit = limit;
+			setLimit(limit, "fixed");
+		}
+		applyLimit();
+	}
+
+	public synchronized boolean isAdaptive() {
+		return mAdaptive;
+	}
+
+	/**
+	 * @return how many downloads may run at once
+	 */
+	public synchronized int getLimit() {
+		return mLimit;
+	}
+
+	public synchronized int getMinLimit() {
+		return mMinLimit;
+	}
+
+	public synchronized int getMaxLimit() {
+		return mMaxLimit;
+	}
+
+	/**
+	 * @return the most recent changes of the limit, oldest first
+	 */
+	public synchronized List<Change> getHistory() {
+		return new ArrayList<Change>(mHistory);
+	}
+
+	/**
+	 * Called when a download has finished successfully.
+	 * 
+	 * @param bytes
+	 *          the size of the download
+	 * @param firstByteNanos
+	 *          how long it took from sending the request to the first byte of
+	 *          the body arriving
+	 * @param totalNanos
+	 *          how long it took from sending the request to the last byte
+	 *          arriving
+	 */
+	void onDownloaded(long bytes, long firstByteNanos, long totalNanos) {
+		synchronized (this) {
+			if (!mAdaptive) {
+				return;
+			}
+			if (mBaselineFirstByteNanos == 0 || firstByteNanos < mBaselineFirstByteNanos) {
+				mBaselineFirstByteNanos = firstByteNanos;
+			}
+			mRoundCount++;
+			mRoundBytes += bytes;
+			mRoundFirstByteNanos += firstByteNanos;
+			mRoundTotalNanos += totalNanos;
+			if (mRoundMinFirstByteNanos == 0 || firstByteNanos < mRoundMinFirstByteNanos) {
+				mRoundMinFirstByteNanos = firstByteNanos;
+			}
+			if (mRoundCount < mLimit || !endRound()) {
+				return;
+			}
+		}
+		applyLimit();
+	}
+
+	/**
+	 * Called when a download has failed because of the network, rather than
+	 * because the server refused it.
+	 */
+	void onFailed() {
+		synchronized (this) {
+			if (!mAdaptive) {
+				return;
+			}
+			mLastChangeWasIncrease = false;
+			startRound();
+			if (!setLimit(Math.max(mMinLimit, mLimit / 2), "failure")) {
+				return;
+			}
+		}
+		applyLimit();
+	}
+
+	/**
+	 * Passes the limit on to the scheduler. This is done without holding the
+	 * lock, as the scheduler may start jobs, so a thread that passes on a limit
+	 * that has since changed goes round again with the new one.
+	 */
+	private void applyLimit() {
+		while (true) {
+			int limit = getLimit();
+			mScheduler.setMaxRunning(limit);
+			if (limit == getLimit()) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the limit changed
+	 */
+	private boolean endRound() {
+		// the throughput of one download times the number running, which unlike
+		// bytes over wall time is not lowered by idle periods between scrolls
+		double throughput = mRoundTotalNanos > 0 ? mRoundBytes * 1e9 / mRoundTotalNanos * mLimit : 0;
+		long averageFirstByte = mRoundFirstByteNanos / mRoundCount;
+		long roundMinFirstByte = mRoundMinFirstByteNanos;
+		boolean lastChangeWasIncrease = mLastChangeWasIncrease;
+		double lastThroughput = mLastThroughput;
+		startRound();
+		mLastThroughput = throughput;
+		mLastChangeWasIncrease = false;
+
+		boolean changed = false;
+		if (averageFirstByte > mBaselineFirstByteNanos * CONGESTION_FACTOR) {
+			changed = setLimit(Math.max(mMinLimit, mLimit * 3 / 4), "congestion");
+		} else if (lastChangeWasIncrease && throughput < lastThroughput * 0.9) {
+			// more downloads at once made things slower
+			changed = setLimit(Math.max(mMinLimit, mLimit - 1), "saturated");
+		} else if (mLimit < mMaxLimit) {
+			changed = setLimit(mLimit + 1, "increase");
+			mLastChangeWasIncrease = true;
+		}
+		// let the baseline follow the network if it has got slower for good
+		if (roundMinFirstByte > mBaselineFirstByteNanos) {
+			mBaselineFirstByteNanos += (roundMinFirstByte - mBaselineFirstByteNanos) / 4;
+		}
+		return changed;
+	}
+
+	private void startRound() {
+		mRoundCount = 0;
+		mRoundBytes = 0;
+		mRoundFirstByteNanos = 0;
+		mRoundMinFirstByteNanos = 0;
+		mRoundTotalNanos = 0;
+	}
+
+	/**
+	 * Records a new limit, which the caller passes on to the scheduler with
+	 * {@link #applyLimit()} once it has let go of the lock.
+	 * 
+	 * @return true if the limit changed
+	 */
+	private boolean setLimit(int limit, String reason) {
+		if (limit == mLimit && !mHistory.isEmpty()) {
+			return false;
+		}
+		mLimit = limit;
+		mHistory.add(new Change(System.currentTimeMillis(), limit, reason));
+		if (mHistory.size() > HISTORY_SIZE) {
+			mHistory.removeFirst();
+		}
+		return true;
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Locale;
+
+/**
+ * The default {@link KeyNormalizer}. It lower cases the scheme and host, drops
+ * default ports and fragments, decodes percent-encoded characters that never
+ * need encoding, sorts the query parameters by name and removes parameters
+ * that do not change the image, such as tracking parameters.
+ */
+public class DefaultKeyNormalizer implements KeyNormalizer {
+
+	private static final String[] DEFAULT_IGNORED_PARAMETERS = { "utm_source", "utm_medium", "utm_campaign", "utm_term", "utm_content" };
+
+	private final HashSet<String> mIgnoredParameters = new HashSet<String>();
+
+	/**
+	 * Creates a normalizer that removes the utm_ tracking parameters.
+	 */
+	public DefaultKeyNormalizer() {
+		this(DEFAULT_IGNORED_PARAMETERS);
+	}
+
+	/**
+	 * @param ignoredParameters
+	 *          the names of query parameters to remove from keys
+	 */
+	public DefaultKeyNormalizer(String... ignoredParameters) {
+		mIgnoredParameters.addAll(Arrays.asList(ignoredParameters));
+	}
+
+	public void addIgnoredParameter(String name) {
+		mIgnoredParameters.add(name);
+	}
+
+	@Override
+	public String normalize(String url) {
+		if (url == null) {
+			return null;
+		}
+		int schemeEnd = url.indexOf("://");
+		if (schemeEnd <= 0) {
+			return url;
+		}
+		String scheme = url.substring(0, schemeEnd).toLowerCase(Locale.US);
+		int authorityStart = schemeEnd + 3;
+		int fragmentStart = url.indexOf('#', authorityStart);
+		if (fragmentStart != -1) {
+			url = url.substring(0, fragmentStart);
+		}
+		int pathStart = indexOfAny(url, "/?", authorityStart);
+		String authority = url.substring(authorityStart, pathStart == -1 ? url.length() : pathStart);
+		String rest = pathStart == -1 ? "" : url.substring(pathStart);
+
+		int queryStart = rest.indexOf('?');
+		String path = queryStart == -1 ? rest : rest.substring(0, queryStart);
+		String query = queryStart == -1 ? null : rest.substring(queryStart + 1);
+
+		StringBuilder key = new StringBuilder(url.length());
+		key.append(scheme).append("://").append(normalizeAuthority(scheme, authority));
+		key.append(path.length() == 0 ? "/" : normalizeEncoding(path));
+		if (query != null) {
+			String normalizedQuery = normalizeQuery(query);
+			if (normalizedQuery.length() > 0) {
+				key.append('?').append(normalizedQuery);
+			}
+		}
+		return key.toString();
+	}
+
+	private static String normalizeAuthority(String scheme, String authority) {
+		int userInfoEnd = authority.lastIndexOf('@');
+		String userInfo = userInfoEnd == -1 ? "" : authority.substring(0, userInfoEnd + 1);
+		String hostAndPort = authority.substring(userInfoEnd + 1).toLowerCase(Locale.US);
+		if (("http".equals(scheme) && hostAndPort.endsWith(":80")) || ("https".equals(scheme) && hostAndPort.endsWith(":443"))) {
+			hostAndPort = hostAndPort.substring(0, hostAndPort.lastIndexOf(':'));
+		}
+		return userInfo + hostAndPort;
+	}
+
+	private String normalizeQuery(String query) {
+		ArrayList<String> parameters = new ArrayList<String>();
+		for (String parameter : query.split("&")) {
+			if (parameter.length() == 0) {
+				continue;
+			}
+			parameter = normalizeEncoding(parameter);
+			if (!mIgnoredParameters.contains(nameOf(parameter))) {
+				parameters.add(parameter);
+			}
+		}
+		// sorted by name only, and the sort is stable, so repeated parameters keep
+		// their order
+		Collections.sort(parameters, new Comparator<String>() {
+			@Override
+			public int compare(String lhs, String rhs) {
+				return nameOf(lhs).compareTo(nameOf(rhs));
+			}
+		});
+		StringBuilder normalized = new StringBuilder(query.length());
+		for (String parameter : parameters) {
+			if (normalized.length() > 0) {
+				normalized.append('&');
+			}
+			normalized.append(parameter);
+		}
+		return normalized.toString();
+	}
+
+	private static String nameOf(String parameter) {
+		int equals = parameter.indexOf('=');
+		return equals == -1 ? parameter : parameter.substring(0, equals);
+	}
+
+	/**
+	 * Decodes percent-encoded unreserved characters, which mean the same thing
+	 * encoded or not, and upper cases the hex digits of everything else.
+	 */
+	static String normalizeEncoding(String s) {
+		if (s.indexOf('%') == -1) {
+			return s;
+		}
+		StringBuilder normalized = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '%' && i + 2 < s.length() && isHex(s.charAt(i + 1)) && isHex(s.charAt(i + 2))) {
+				char decoded = (char) Integer.parseInt(s.substring(i + 1, i + 3), 16);
+				if (isUnreserved(decoded)) {
+					normalized.append(decoded);
+				} else {
+					normalized.append('%').append(Character.toUpperCase(s.charAt(i + 1))).append(Character.toUpperCase(s.charAt(i + 2)));
+				}
+				i += 2;
+			} else {
+				normalized.append(c);
+			}
+		}
+		return normalized.toString();
+	}
+
+	private static boolean isHex(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+
+	private static boolean isUnreserved(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' || c == '~';
+	}
+
+	private static int indexOfAny(String s, String chars, int fromIndex) {
+		for (int i = fromIndex; i < s.length(); i++) {
+			if (chars.indexOf(s.charAt(i)) != -1) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
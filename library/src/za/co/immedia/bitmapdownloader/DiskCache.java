@@ -0,0 +1,531 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.regex.Pattern;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * The on disk cache of downloaded images. Images are stored once per distinct
+ * content, named by a hash of their bytes, and every URL key points at the
+ * content it was last downloaded as, so many URLs serving the same image share
+ * one file. Every key remembers when it stops being fresh, as worked out from
+ * the headers of the response that created it. When the cache grows past its
+ * size limit, expired keys are removed first and then the least recently used
+ * ones, and content is deleted once no key points at it.
+ * <p>
+ * The cache can be shared by several processes of the same app. Files only
+ * appear under their final name once they are completely written, and the
+ * index is read under a shared lock and changed under an exclusive lock on a
+ * lock file, so a process picks up entries added by another one as soon as it
+ * next looks something up.
+ * </p>
+ */
+public class DiskCache {
+	private static final String TAG = DiskCache.class.getCanonicalName();
+
+	private static final String DIRECTORY = "bitmapdownloader";
+	private static final String INDEX = "index";
+	private static final String LOCK = "lock";
+	private static final String TEMP_SUFFIX = ".tmp";
+	// temp files older than this were left behind by a process that died
+	private static final long TEMP_FILE_MAX_AGE = 1000 * 60 * 60;
+	// the names earlier versions stored images under in the files directory, an
+	// MD5 of the URL in hex without leading zeros
+	private static final Pattern LEGACY_NAME = Pattern.compile("[0-9a-f]{16,32}");
+
+	private static DiskCache sInstance;
+
+	private final File mDirectory;
+	private final File mIndexFile;
+	private final File mLockFile;
+	private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+	private final HashMap<String, Content> mContents = new HashMap<String, Content>();
+	private long mMaxSize = 1024 * 1024 * 20; // by default use 20mb as a limit for the disk cache
+	private long mSize;
+	// the generation of the index that mEntries was read from, every write
+	// increments it so other processes know to read the index again
+	private long mGeneration = -1;
+	private boolean mSwept;
+	private FileChannel mLockChannel;
+
+	/**
+	 * A URL key, and the content it points at.
+	 */
+	static class Entry {
+		final String key;
+		final String contentKey;
+		final long expires;
+		long lastAccess;
+
+		Entry(String key, String contentKey, long expires, long lastAccess) {
+			this.key = key;
+			this.contentKey = contentKey;
+			this.expires = expires;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	/**
+	 * A file on disk, and how many keys point at it.
+	 */
+	static class Content {
+		final long size;
+		int references;
+
+		Content(long size) {
+			this.size = size;
+		}
+	}
+
+	public static synchronized DiskCache getInstance(Context context) {
+		if (sInstance == null) {
+			Context appContext = context.getApplicationContext();
+			sInstance = new DiskCache(new File(appContext.getCacheDir(), DIRECTORY));
+			final File filesDir = appContext.getFilesDir();
+			BitmapEngine.getInstance().getIoExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					deleteLegacyFiles(filesDir);
+				}
+			});
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Deletes the images earlier versions stored in the files directory, which
+	 * this cache does not know about and so would never trim.
+	 */
+	static void deleteLegacyFiles(File filesDir) {
+		File[] files = filesDir != null ? filesDir.listFiles() : null;
+		if (files == null) {
+			return;
+		}
+		int deleted = 0;
+		for (File file : files) {
+			if (file.isFile() && LEGACY_NAME.matcher(file.getName()).matches() && file.delete()) {
+				deleted++;
+			}
+		}
+		if (deleted > 0 && Logger.isLoggable(Log.INFO)) {
+			Logger.i(TAG, "Deleted " + deleted + " images left in " + filesDir + " by an earlier version");
+		}
+	}
+
+	/**
+	 * @return the cache, or null if {@link #getInstance(Context)} has not been
+	 *         called yet
+	 */
+	static synchronized DiskCache peekInstance() {
+		return sInstance;
+	}
+
+	DiskCache(File directory) {
+		mDirectory = directory;
+		mIndexFile = new File(directory, INDEX);
+		mLockFile = new File(directory, LOCK);
+	}
+
+	/**
+	 * Sets the number of bytes the cache may use. The cache is trimmed the next
+	 * time an entry is added.
+	 */
+	public synchronized void setMaxSize(long maxSize) {
+		mMaxSize = maxSize;
+	}
+
+	public synchronized long getMaxSize() {
+		return mMaxSize;
+	}
+
+	public synchronized long getSize() {
+		FileLock lock = lock(true);
+		try {
+			refresh();
+			return mSize;
+		} finally {
+			release(lock);
+		}
+	}
+
+	File getContentFile(String contentKey) {
+		return new File(mDirectory, contentKey);
+	}
+
+	/**
+	 * @return the content key for key if it expired no more than maxStale
+	 *         milliseconds ago, otherwise null
+	 */
+	synchronized String getContentKey(String key, long maxStale) {
+		FileLock lock = lock(true);
+		try {
+			refresh();
+			Entry entry = mEntries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			long now = System.currentTimeMillis();
+			if (maxStale != Long.MAX_VALUE && now > entry.expires + maxStale) {
+				return null;
+			}
+			// only kept in memory until the next write, to save writing the index
+			// on every read
+			entry.lastAccess = now;
+			return entry.contentKey;
+		} finally {
+			release(lock);
+		}
+	}
+
+	/**
+	 * @return when the entry for key expires, in milliseconds since the epoch,
+	 *         or 0 if there is no entry
+	 */
+	synchronized long getExpires(String key) {
+		FileLock lock = lock(true);
+		try {
+			refresh();
+			Entry entry = mEntries.get(key);
+			return entry != null ? entry.expires : 0;
+		} finally {
+			release(lock);
+		}
+	}
+
+	/**
+	 * @return a new file to write an entry to before it is committed with
+	 *         {@link #commit(String, File, String, long)}
+	 */
+	File createTempFile(String key) throws IOException {
+		makeDirectory();
+		return File.createTempFile(key, TEMP_SUFFIX, mDirectory);
+	}
+
+	/**
+	 * Points key at a completely written temp file, whose bytes hash to
+	 * contentKey. If that content is already stored the temp file is deleted,
+	 * otherwise it is moved into place.
+	 */
+	synchronized boolean commit(String key, File temp, String contentKey, long expires) {
+		FileLock lock = lock(false);
+		try {
+			refresh();
+			removeEntry(key);
+			Content content = mContents.get(contentKey);
+			if (content == null) {
+				File file = getContentFile(contentKey);
+				if (!temp.renameTo(file)) {
+					temp.delete();
+					saveIndex();
+					return false;
+				}
+				content = new Content(file.length());
+				mContents.put(contentKey, content);
+				mSize += content.size;
+			} else {
+				if (Logger.isLoggable(Log.DEBUG)) {
+					Logger.d(TAG, "commit(Duplicate): " + key + " -> " + contentKey);
+				}
+				temp.delete();
+			}
+			content.references++;
+			mEntries.put(key, new Entry(key, contentKey, expires, System.currentTimeMillis()));
+			trimToSize(key);
+			saveIndex();
+			return true;
+		} finally {
+			release(lock);
+		}
+	}
+
+	/**
+	 * Removes content that turned out to be corrupt, along with every key that
+	 * points at it.
+	 */
+	synchronized void removeContent(String contentKey) {
+		FileLock lock = lock(false);
+		try {
+			refresh();
+			Iterator<Entry> iterator = mEntries.values().iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().contentKey.equals(contentKey)) {
+					iterator.remove();
+				}
+			}
+			Content content = mContents.remove(contentKey);
+			if (content != null) {
+				mSize -= content.size;
+			}
+			getContentFile(contentKey).delete();
+			saveIndex();
+		} finally {
+			release(lock);
+		}
+	}
+
+	private void removeEntry(String key) {
+		Entry entry = mEntries.remove(key);
+		if (entry == null) {
+			return;
+		}
+		Content content = mContents.get(entry.contentKey);
+		if (content != null && --content.references <= 0) {
+			mContents.remove(entry.contentKey);
+			mSize -= content.size;
+			getContentFile(entry.contentKey).delete();
+		}
+	}
+
+	/**
+	 * Removes entries until the cache fits its size limit, keeping the one that
+	 * was just added.
+	 */
+	private void trimToSize(String keep) {
+		if (mSize <= mMaxSize) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		ArrayList<Entry> entries = new ArrayList<Entry>(mEntries.values());
+		Collections.sort(entries, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry lhs, Entry rhs) {
+				boolean lhsExpired = lhs.expires < now;
+				boolean rhsExpired = rhs.expires < now;
+				if (lhsExpired != rhsExpired) {
+					return lhsExpired ? -1 : 1;
+				}
+				return lhs.lastAccess < rhs.lastAccess ? -1 : (lhs.lastAccess == rhs.lastAccess ? 0 : 1);
+			}
+		});
+		for (Entry entry : entries) {
+			if (mSize <= mMaxSize) {
+				break;
+			}
+			if (entry.key.equals(keep)) {
+				continue;
+			}
+			if (Logger.isLoggable(Log.DEBUG)) {
+				Logger.d(TAG, "trimToSize(Evicting): " + entry.key);
+			}
+			removeEntry(entry.key);
+		}
+	}
+
+	private void makeDirectory() throws IOException {
+		if (!mDirectory.exists() && !mDirectory.mkdirs() && !mDirectory.exists()) {
+			throw new IOException("Unable to create " + mDirectory);
+		}
+	}
+
+	/**
+	 * Locks the index against other processes. Threads in this process are kept
+	 * out by the methods being synchronized, as a process can only hold one lock
+	 * on a file.
+	 * 
+	 * @return the lock, or null if the file system does not support locking, in
+	 *         which case the cache carries on without it
+	 */
+	private FileLock lock(boolean shared) {
+		try {
+			if (mLockChannel == null) {
+				makeDirectory();
+				mLockChannel = new RandomAccessFile(mLockFile, "rw").getChannel();
+			}
+			return mLockChannel.lock(0, Long.MAX_VALUE, shared);
+		} catch (IOException e) {
+			Logger.w(TAG, "Unable to lock the disk cache", e);
+			return null;
+		}
+	}
+
+	private void release(FileLock lock) {
+		if (lock != null) {
+			try {
+				lock.release();
+			} catch (IOException e) {
+				Logger.w(TAG, "Unable to unlock the disk cache", e);
+			}
+		}
+	}
+
+	/**
+	 * Reads the index again if another process has written it since it was last
+	 * read. Must be called while holding a lock.
+	 */
+	private void refresh() {
+		if (readGeneration() != mGeneration) {
+			load();
+		}
+		if (!mSwept) {
+			sweep();
+		}
+	}
+
+	private long readGeneration() {
+		if (!mIndexFile.exists()) {
+			return -1;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(mIndexFile));
+			return Long.parseLong(reader.readLine());
+		} catch (IOException e) {
+			Logger.w(TAG, "Unable to read the disk cache index", e);
+		} catch (NumberFormatException e) {
+			Logger.w(TAG, "The disk cache index is corrupt", e);
+		} finally {
+			Utilities.closeQuietly(reader);
+		}
+		return -1;
+	}
+
+	private void load() {
+		HashMap<String, Entry> previous = new HashMap<String, Entry>(mEntries);
+		mEntries.clear();
+		mContents.clear();
+		mSize = 0;
+		mGeneration = -1;
+		if (!mIndexFile.exists()) {
+			return;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(mIndexFile));
+			mGeneration = Long.parseLong(reader.readLine());
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split(" ");
+				if (parts.length != 5) {
+					continue;
+				}
+				Entry entry = new Entry(parts[0], parts[1], Long.parseLong(parts[3]), Long.parseLong(parts[4]));
+				Content content = mContents.get(entry.contentKey);
+				if (content == null) {
+					if (!getContentFile(entry.contentKey).exists()) {
+						continue;
+					}
+					content = new Content(Long.parseLong(parts[2]));
+					mContents.put(entry.contentKey, content);
+					mSize += content.size;
+				}
+				content.references++;
+				// keep the reads made by this process since the index was written
+				Entry old = previous.get(entry.key);
+				if (old != null && old.contentKey.equals(entry.contentKey)) {
+					entry.lastAccess = Math.max(entry.lastAccess, old.lastAccess);
+				}
+				mEntries.put(entry.key, entry);
+			}
+		} catch (IOException e) {
+			Logger.w(TAG, "Unable to read the disk cache index", e);
+		} catch (NumberFormatException e) {
+			Logger.w(TAG, "The disk cache index is corrupt", e);
+		} finally {
+			Utilities.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * Removes files that are not in the index, and so can never be served. Temp
+	 * files are left alone unless they are old, as another process may still be
+	 * writing them.
+	 */
+	private void sweep() {
+		mSwept = true;
+		File[] files = mDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for (File file : files) {
+			String name = file.getName();
+			if (file.equals(mIndexFile) || file.equals(mLockFile) || mContents.containsKey(name)) {
+				continue;
+			}
+			if (name.endsWith(TEMP_SUFFIX) && now - file.lastModified() < TEMP_FILE_MAX_AGE) {
+				continue;
+			}
+			file.delete();
+		}
+	}
+
+	/**
+	 * Writes the index under a new generation. Must be called while holding an
+	 * exclusive lock.
+	 */
+	private void saveIndex() {
+		BufferedWriter writer = null;
+		File temp = null;
+		try {
+			temp = createTempFile(INDEX);
+			writer = new BufferedWriter(new FileWriter(temp));
+			// based on the time as well, so that a cleared and recreated index is
+			// never mistaken for one that has already been read
+			long generation = Math.max(mGeneration + 1, System.currentTimeMillis());
+			writer.write(Long.toString(generation));
+			writer.newLine();
+			for (Entry entry : mEntries.values()) {
+				Content content = mContents.get(entry.contentKey);
+				writer.write(entry.key + " " + entry.contentKey + " " + content.size + " " + entry.expires + " " + entry.lastAccess);
+				writer.newLine();
+			}
+			writer.close();
+			writer = null;
+			if (temp.renameTo(mIndexFile)) {
+				mGeneration = generation;
+			} else {
+				Logger.w(TAG, "Unable to replace the disk cache index");
+			}
+		} catch (IOException e) {
+			Logger.w(TAG, "Unable to write the disk cache index", e);
+		} finally {
+			Utilities.closeQuietly(writer);
+			if (temp != null) {
+				temp.delete();
+			}
+		}
+	}
+}
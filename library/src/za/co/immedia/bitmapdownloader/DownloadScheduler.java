@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Decides which downloads run and which wait, so that no more than the maximum
+ * number run at once and a key that is already being downloaded is not
+ * downloaded again. A job whose view has moved on to another image is skipped
+ * when its turn comes, as {@link Job#start()} returns false.
+ * <p>
+ * Waiting jobs are queued by host, and hosts take turns to start their next
+ * job. Each host may only run a few jobs at once, so a slow host with many
+ * images queued cannot hold up every other host.
+ * </p>
+ * <p>
+ * The scheduler can be used from any thread. It never holds a lock while
+ * calling a job.
+ * </p>
+ */
+class DownloadScheduler {
+
+	// how many jobs one host may run at once unless told otherwise
+	static final int DEFAULT_MAX_RUNNING_PER_HOST = 4;
+
+	/**
+	 * A download as the scheduler sees it.
+	 */
+	interface Job {
+		/**
+		 * @return the key the image is cached under, jobs with the same key
+		 *         download the same image
+		 */
+		public String getKey();
+
+		/**
+		 * @return the host the job downloads from, may be null
+		 */
+		public String getHost();
+
+		/**
+		 * Starts the download.
+		 * 
+		 * @return false if the job no longer needs to run, in which case the next
+		 *         one is started in its place
+		 */
+		public boolean start();
+	}
+
+	// guards the queues and the running jobs
+	private final Object mLock = new Object();
+	// the waiting jobs of each host, in the order they were submitted
+	private final HashMap<String, LinkedList<Job>> mQueues = new HashMap<String, LinkedList<Job>>();
+	// the hosts with waiting jobs, in the order they get their next turn
+	private final LinkedList<String> mTurns = new LinkedList<String>();
+	private final HashSet<Job> mRunning = new HashSet<Job>();
+	private final HashMap<String, Integer> mRunningPerHost = new HashMap<String, Integer>();
+	private final HashMap<String, Integer> mMaxRunningPerHost = new HashMap<String, Integer>();
+	private int mDefaultMaxRunningPerHost = DEFAULT_MAX_RUNNING_PER_HOST;
+	// the job that is queued or running for each key
+	private final ConcurrentHashMap<String, Job> mActive = new ConcurrentHashMap<String, Job>();
+	// the jobs waiting for each key to be downloaded by another job
+	private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Job>> mDuplicates = new ConcurrentHashMap<String, ConcurrentLinkedQueue<Job>>();
+	private volatile int mMaxRunning;
+
+	DownloadScheduler(int maxRunning) {
+		mMaxRunning = maxRunning;
+	}
+
+	void setMaxRunning(int maxRunning) {
+		mMaxRunning = maxRunning;
+		startNext();
+	}
+
+	int getMaxRunning() {
+		return mMaxRunning;
+	}
+
+	/**
+	 * Sets how many jobs each host may run at once, for hosts without a limit of
+	 * their own.
+	 */
+	void setMaxRunningPerHost(int maxRunning) {
+		synchronized (mLock) {
+			mDefaultMaxRunningPerHost = maxRunning;
+		}
+		startNext();
+	}
+
+	/**
+	 * Sets how many jobs host may run at once.
+	 */
+	void setMaxRunningPerHost(String host, int maxRunning) {
+		synchronized (mLock) {
+			mMaxRunningPerHost.put(host, maxRunning);
+		}
+		startNext();
+	}
+
+	/**
+	 * Runs job, or queues it if too many jobs are running. If another job is
+	 * already downloading the same key, job waits for it instead, and is handed
+	 * back by {@link #finished(Job)} once that job is done.
+	 * 
+	 * @return false if job is waiting for another job
+	 */
+	boolean submit(Job job) {
+		String key = job.getKey();
+		while (true) {
+			Job active = mActive.putIfAbsent(key, job);
+			if (active == null || active == job) {
+				break;
+			}
+			ConcurrentLinkedQueue<Job> duplicates = mDuplicates.get(key);
+			if (duplicates == null) {
+				ConcurrentLinkedQueue<Job> created = new ConcurrentLinkedQueue<Job>();
+				duplicates = mDuplicates.putIfAbsent(key, created);
+				if (duplicates == null) {
+					duplicates = created;
+				}
+			}
+			duplicates.add(job);
+			// the active job may have finished, and collected its duplicates, before
+			// this one was added. If so, and nobody collected it, try again
+			if (mActive.get(key) == active || !duplicates.remove(job)) {
+				return false;
+			}
+		}
+		synchronized (mLock) {
+			String host = hostOf(job);
+			LinkedList<Job> queue = mQueues.get(host);
+			if (queue == null) {
+				queue = new LinkedList<Job>();
+				mQueues.put(host, queue);
+				mTurns.add(host);
+			}
+			queue.add(job);
+		}
+		startNext();
+		return true;
+	}
+
+	/**
+	 * Removes job from the queue, if it has not started yet, or stops it waiting
+	 * for another job. Any jobs waiting for it are queued in its place.
+	 */
+	void remove(Job job) {
+		boolean removed = false;
+		synchronized (mLock) {
+			String host = hostOf(job);
+			LinkedList<Job> queue = mQueues.get(host);
+			if (queue != null && queue.remove(job)) {
+				removed = true;
+				if (queue.isEmpty()) {
+					mQueues.remove(host);
+					mTurns.remove(host);
+				}
+			} else if (!mRunning.contains(job) && mActive.get(job.getKey()) == job) {
+				// suspended, waiting to be submitted again
+				removed = true;
+			}
+		}
+		if (removed) {
+			release(job);
+		} else {
+			ConcurrentLinkedQueue<Job> duplicates = mDuplicates.get(job.getKey());
+			if (duplicates != null) {
+				duplicates.remove(job);
+			}
+		}
+	}
+
+	/**
+	 * Called when a job has stopped running, whether it succeeded or not, to
+	 * start the next one.
+	 * 
+	 * @return the jobs that were waiting for job to download the same key
+	 */
+	List<Job> finished(Job job) {
+		synchronized (mLock) {
+			stopped(job);
+		}
+		List<Job> duplicates = takeDuplicates(job);
+		startNext();
+		return duplicates;
+	}
+
+	/**
+	 * Called when a job has stopped running but will be submitted again later,
+	 * to start the next one in the meantime. Jobs waiting for it to download the
+	 * same key carry on waiting. A suspended job that is not submitted again
+	 * must be removed.
+	 */
+	void suspended(Job job) {
+		synchronized (mLock) {
+			stopped(job);
+		}
+		startNext();
+	}
+
+	private void startNext() {
+		while (true) {
+			Job job;
+			synchronized (mLock) {
+				job = next();
+				if (job == null) {
+					return;
+				}
+			}
+			if (!job.start()) {
+				synchronized (mLock) {
+					stopped(job);
+				}
+				release(job);
+			}
+		}
+	}
+
+	/**
+	 * Takes the next job that may run and counts it as running. The host whose
+	 * turn it is goes first. Hosts that are already running as many jobs as they
+	 * may keep their place and the next host gets the turn.
+	 * 
+	 * @return the job, or null if no job may run yet
+	 */
+	private Job next() {
+		if (mRunning.size() >= mMaxRunning) {
+			return null;
+		}
+		for (int i = mTurns.size(); i > 0; i--) {
+			String host = mTurns.removeFirst();
+			LinkedList<Job> queue = mQueues.get(host);
+			Integer running = mRunningPerHost.get(host);
+			int count = running != null ? running : 0;
+			Integer max = mMaxRunningPerHost.get(host);
+			if (count >= (max != null ? max : mDefaultMaxRunningPerHost)) {
+				mTurns.addLast(host);
+				continue;
+			}
+			Job job = queue.removeFirst();
+			if (queue.isEmpty()) {
+				mQueues.remove(host);
+			} else {
+				mTurns.addLast(host);
+			}
+			mRunning.add(job);
+			mRunningPerHost.put(host, count + 1);
+			return job;
+		}
+		return null;
+	}
+
+	private void stopped(Job job) {
+		if (mRunning.remove(job)) {
+			String host = hostOf(job);
+			int running = mRunningPerHost.get(host) - 1;
+			if (running > 0) {
+				mRunningPerHost.put(host, running);
+			} else {
+				mRunningPerHost.remove(host);
+			}
+		}
+	}
+
+	private static String hostOf(Job job) {
+		String host = job.getHost();
+		return host != null ? host : "";
+	}
+
+	/**
+	 * Hands the key of a job that will not download it to the first job waiting
+	 * for it, if there is one.
+	 */
+	private void release(Job job) {
+		List<Job> duplicates = takeDuplicates(job);
+		for (Job duplicate : duplicates) {
+			submit(duplicate);
+		}
+	}
+
+	private List<Job> takeDuplicates(Job job) {
+		ArrayList<Job> taken = new ArrayList<Job>();
+		String key = job.getKey();
+		if (!mActive.remove(key, job)) {
+			return taken;
+		}
+		ConcurrentLinkedQueue<Job> duplicates = mDuplicates.remove(key);
+		if (duplicates != null) {
+			Job duplicate;
+			while ((duplicate = duplicates.poll()) != null) {
+				taken.add(duplicate);
+			}
+		}
+		return taken;
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+/**
+ * Follows single requests through the pipeline, for profiling slow images. The
+ * listener is told when each request reaches each stage, with the time from
+ * {@link System#nanoTime()}, on the thread the stage happens on. It must be
+ * quick and safe to call from any thread, as it holds up the request.
+ * <p>
+ * Stages that run on a background thread come in pairs, both on the same
+ * thread: {@link #DISK_LOOKUP_START} and {@link #DISK_LOOKUP_END},
+ * {@link #CONNECT} and either {@link #BODY_COMPLETE} or
+ * {@link #DOWNLOAD_ABORTED}, and {@link #DECODE_START} and {@link #DECODE_END}.
+ * </p>
+ * 
+ * @see BitmapDownloader#setEventListener(EventListener)
+ * @see TraceEventListener
+ */
+public interface EventListener {
+
+	/**
+	 * The image was requested for a view.
+	 */
+	public static final int REQUESTED = 0;
+
+	/**
+	 * The memory cache was checked.
+	 */
+	public static final int MEMORY_CHECKED = 1;
+
+	/**
+	 * The disk cache is about to be looked up and the file read.
+	 */
+	public static final int DISK_LOOKUP_START = 2;
+
+	/**
+	 * The disk cache lookup finished, whether the file was found or not.
+	 */
+	public static final int DISK_LOOKUP_END = 3;
+
+	/**
+	 * The download was queued, or joined a download of the same image.
+	 */
+	public static final int QUEUED = 4;
+
+	/**
+	 * The download's turn came.
+	 */
+	public static final int DEQUEUED = 5;
+
+	/**
+	 * The request is about to be sent.
+	 */
+	public static final int CONNECT = 6;
+
+	public static final int FIRST_BYTE = 7;
+
+	public static final int BODY_COMPLETE = 8;
+
+	/**
+	 * The download failed or was cancelled before the body was complete.
+	 */
+	public static final int DOWNLOAD_ABORTED = 9;
+
+	public static final int DECODE_START = 10;
+
+	/**
+	 * Decoding, and transforming, finished, whether it worked or not.
+	 */
+	public static final int DECODE_END = 11;
+
+	/**
+	 * The image was given to the view.
+	 */
+	public static final int DELIVERED = 12;
+
+	public static final int CANCELLED = 13;
+
+	/**
+	 * @param download
+	 *          the request, which is the same object at every stage
+	 * @param stage
+	 *          one of the stages above
+	 * @param nanos
+	 *          when the stage was reached, from {@link System#nanoTime()}
+	 */
+	public void onEvent(BitmapDownloader.Download download, int stage, long nanos);
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.LinkedList;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Collects work for the main thread, such as showing a decoded image, and runs
+ * it once per frame instead of as separate messages. If the work for a frame
+ * takes longer than the frame budget, the rest is left for the next frame, so
+ * a screen full of images resolving at once does not drop frames.
+ * <p>
+ * Frames are timed by {@link Choreographer} on Jelly Bean and later, and
+ * approximated with a {@link Handler} before that. Only use this on the main
+ * thread.
+ * </p>
+ */
+class FrameBatcher {
+
+	// the length of a frame at 60fps
+	private static final long FRAME_MILLIS = 16;
+
+	private final LinkedList<Runnable> mQueue = new LinkedList<Runnable>();
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private Object mFrameCallback;
+	private final Runnable mFrameRunnable = new Runnable() {
+		@Override
+		public void run() {
+			doFrame();
+		}
+	};
+	private volatile long mBudgetNanos = 8 * 1000 * 1000;
+	private boolean mScheduled;
+
+	/**
+	 * Sets how long the queued work may take in each frame. At least one piece
+	 * of work is run each frame however long it takes.
+	 */
+	void setBudget(long budgetNanos) {
+		mBudgetNanos = budgetNanos;
+	}
+
+	long getBudget() {
+		return mBudgetNanos;
+	}
+
+	/**
+	 * Runs runnable at the start of the next frame that has time for it.
+	 */
+	void post(Runnable runnable) {
+		mQueue.add(runnable);
+		schedule();
+	}
+
+	@SuppressLint("NewApi")
+	private void schedule() {
+		if (mScheduled) {
+			return;
+		}
+		mScheduled = true;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			if (mFrameCallback == null) {
+				mFrameCallback = new Choreographer.FrameCallback() {
+					@Override
+					public void doFrame(long frameTimeNanos) {
+						FrameBatcher.this.doFrame();
+					}
+				};
+			}
+			Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+		} else {
+			// line up with the next frame boundary as best we can
+			mHandler.postDelayed(mFrameRunnable, FRAME_MILLIS - SystemClock.uptimeMillis() % FRAME_MILLIS);
+		}
+	}
+
+	private void doFrame() {
+		mScheduled = false;
+		long start = System.nanoTime();
+		long budget = mBudgetNanos;
+		Runnable runnable;
+		while ((runnable = mQueue.poll()) != null) {
+			runnable.run();
+			if (System.nanoTime() - start >= budget) {
+				break;
+			}
+		}
+		if (!mQueue.isEmpty()) {
+			schedule();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values in fixed buckets whose bounds double from one bucket to the
+ * next: bucket 0 holds 0, bucket 1 holds 1, bucket 2 holds 2 and 3, bucket 3
+ * holds 4 to 7 and so on. Recording a value is a couple of atomic additions,
+ * without any locking, so it can be done on every request.
+ * <p>
+ * The histograms in a {@link Stats} are copies, which do not change.
+ * </p>
+ */
+public class Histogram {
+
+	// the last bucket also holds everything above 2^38
+	static final int BUCKETS = 40;
+
+	private final AtomicLongArray mCounts;
+	private final AtomicLong mSum = new AtomicLong();
+
+	Histogram() {
+		mCounts = new AtomicLongArray(BUCKETS);
+	}
+
+	private Histogram(Histogram histogram) {
+		mCounts = new AtomicLongArray(BUCKETS);
+		for (int i = 0; i < BUCKETS; i++) {
+			mCounts.set(i, histogram.mCounts.get(i));
+		}
+		mSum.set(histogram.mSum.get());
+	}
+
+	/**
+	 * Counts value, treating negative values as 0.
+	 */
+	void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		mCounts.incrementAndGet(bucketOf(value));
+		mSum.addAndGet(value);
+	}
+
+	/**
+	 * @return a copy of the histogram as it is now
+	 */
+	Histogram snapshot() {
+		return new Histogram(this);
+	}
+
+	static int bucketOf(long value) {
+		return Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+	}
+
+	public int getBucketCount() {
+		return BUCKETS;
+	}
+
+	/**
+	 * @return the largest value counted in bucket
+	 */
+	public long getBucketUpperBound(int bucket) {
+		return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+
+	/**
+	 * @return how many values were counted in bucket
+	 */
+	public long getBucket(int bucket) {
+		return mCounts.get(bucket);
+	}
+
+	/**
+	 * @return how many values were recorded
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += mCounts.get(i);
+		}
+		return count;
+	}
+
+	public long getSum() {
+		return mSum.get();
+	}
+
+	/**
+	 * @return the mean of the values recorded, or 0 if there are none
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count > 0 ? (double) getSum() / count : 0;
+	}
+
+	/**
+	 * @param percentile
+	 *          between 0 and 100
+	 * @return the upper bound of the bucket holding the value at percentile,
+	 *         which is at most twice the value, or 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += mCounts.get(i);
+			if (seen >= rank) {
+				return getBucketUpperBound(i);
+			}
+		}
+		return getBucketUpperBound(BUCKETS - 1);
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + " mean=" + Math.round(getMean()) + " p50<=" + getPercentile(50) + " p90<=" + getPercentile(90) +
+				" p99<=" + getPercentile(99);
+	}
+}
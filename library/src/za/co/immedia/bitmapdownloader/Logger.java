@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import android.util.Log;
+
+/**
+ * Where the library's log messages go. Logging is off by default, so that
+ * release builds do no logging work for each image. Call
+ * {@link #setLevel(int)} with one of the {@link Log} priorities to turn it on,
+ * and {@link #setSink(Sink)} to send messages somewhere other than logcat.
+ * <p>
+ * Messages that are built by concatenation are only built once
+ * {@link #isLoggable(int)} says they will be logged.
+ * </p>
+ */
+public final class Logger {
+
+	/**
+	 * A level above every {@link Log} priority, which turns logging off.
+	 */
+	public static final int SILENT = Integer.MAX_VALUE;
+
+	/**
+	 * Receives the messages that pass the level check.
+	 */
+	public static interface Sink {
+		/**
+		 * @param priority
+		 *          one of the {@link Log} priorities
+		 * @param throwable
+		 *          may be null
+		 */
+		public void println(int priority, String tag, String message, Throwable throwable);
+	}
+
+	/**
+	 * Writes messages to logcat.
+	 */
+	public static final Sink LOGCAT = new Sink() {
+		@Override
+		public void println(int priority, String tag, String message, Throwable throwable) {
+			if (throwable != null) {
+				message = message + '\n' + Log.getStackTraceString(throwable);
+			}
+			Log.println(priority, tag, message);
+		}
+	};
+
+	private static volatile int sLevel = SILENT;
+	private static volatile Sink sSink = LOGCAT;
+
+	private Logger() {
+	}
+
+	/**
+	 * Sets the lowest priority that is logged, for example {@link Log#DEBUG}, or
+	 * {@link #SILENT} to log nothing.
+	 */
+	public static void setLevel(int level) {
+		sLevel = level;
+	}
+
+	public static void setSink(Sink sink) {
+		sSink = sink != null ? sink : LOGCAT;
+	}
+
+	public static boolean isLoggable(int priority) {
+		return priority >= sLevel;
+	}
+
+	static void d(String tag, String message) {
+		log(Log.DEBUG, tag, message, null);
+	}
+
+	static void i(String tag, String message) {
+		log(Log.INFO, tag, message, null);
+	}
+
+	static void w(String tag, String message) {
+		log(Log.WARN, tag, message, null);
+	}
+
+	static void w(String tag, String message, Throwable throwable) {
+		log(Log.WARN, tag, message, throwable);
+	}
+
+	private static void log(int priority, String tag, String message, Throwable throwable) {
+		if (priority >= sLevel) {
+			sSink.println(priority, tag, message, throwable);
+		}
+	}
+}
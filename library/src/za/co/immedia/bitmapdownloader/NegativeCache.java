@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.http.HttpStatus;
+
+import android.os.SystemClock;
+
+/**
+ * Remembers the URLs that recently failed and how, so that rebinding a view to
+ * a dead link shows the error drawable straight away instead of trying again.
+ * Each kind of failure is remembered for as long as it is likely to last: a
+ * missing image for minutes, a busy server or a dropped connection for
+ * seconds. The least recently used failures are forgotten once there are
+ * {@link #MAX_ENTRIES} of them.
+ */
+class NegativeCache {
+
+	static final int FAILURE_NOT_FOUND = 0;
+	static final int FAILURE_CLIENT_ERROR = 1;
+	static final int FAILURE_SERVER_ERROR = 2;
+	static final int FAILURE_NETWORK = 3;
+	static final int FAILURE_DECODE = 4;
+
+	static final int MAX_ENTRIES = 256;
+
+	// how long each kind of failure is remembered, indexed by failure
+	private static final long[] TTL_MILLIS = { 10 * 60 * 1000, 5 * 60 * 1000, 30 * 1000, 10 * 1000, 10 * 60 * 1000 };
+
+	private static class Failure {
+		final int failure;
+		final long expires;
+
+		Failure(int failure, long expires) {
+			this.failure = failure;
+			this.expires = expires;
+		}
+	}
+
+	private final LinkedHashMap<String, Failure> mEntries = new LinkedHashMap<String, Failure>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Failure> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	/**
+	 * @return the failure for an HTTP status code other than 200
+	 */
+	static int getFailure(int statusCode) {
+		if (statusCode == HttpStatus.SC_NOT_FOUND || statusCode == HttpStatus.SC_GONE) {
+			return FAILURE_NOT_FOUND;
+		}
+		if (statusCode >= 400 && statusCode < 500) {
+			return FAILURE_CLIENT_ERROR;
+		}
+		return FAILURE_SERVER_ERROR;
+	}
+
+	synchronized void put(String key, int failure) {
+		if (key != null) {
+			mEntries.put(key, new Failure(failure, SystemClock.elapsedRealtime() + TTL_MILLIS[failure]));
+		}
+	}
+
+	/**
+	 * @return the failure of key if it failed recently enough to not be tried
+	 *         again yet, otherwise -1
+	 */
+	synchronized int get(String key) {
+		if (key == null) {
+			return -1;
+		}
+		Failure entry = mEntries.get(key);
+		if (entry == null) {
+			return -1;
+		}
+		if (entry.expires <= SystemClock.elapsedRealtime()) {
+			mEntries.remove(key);
+			return -1;
+		}
+		return entry.failure;
+	}
+
+	synchronized void remove(String key) {
+		mEntries.remove(key);
+	}
+
+	synchronized void clear() {
+		mEntries.clear();
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+
+/**
+ * Pauses a {@link BitmapDownloader} while a list or grid is being flung, so
+ * that images are only loaded for the rows the list settles on.
+ * 
+ * <pre>
+ * listView.setOnScrollListener(new PauseOnScrollListener(downloader));
+ * </pre>
+ */
+public class PauseOnScrollListener implements OnScrollListener {
+
+	private final BitmapDownloader mDownloader;
+	private final boolean mPauseOnTouchScroll;
+	private final OnScrollListener mListener;
+
+	public PauseOnScrollListener(BitmapDownloader downloader) {
+		this(downloader, false, null);
+	}
+
+	/**
+	 * @param pauseOnTouchScroll
+	 *          also pause while the list is being dragged
+	 * @param listener
+	 *          another listener to pass the scroll events on to, as a list only
+	 *          has one, may be null
+	 */
+	public PauseOnScrollListener(BitmapDownloader downloader, boolean pauseOnTouchScroll, OnScrollListener listener) {
+		mDownloader = downloader;
+		mPauseOnTouchScroll = pauseOnTouchScroll;
+		mListener = listener;
+	}
+
+	@Override
+	public void onScrollStateChanged(AbsListView view, int scrollState) {
+		switch (scrollState) {
+		case SCROLL_STATE_FLING:
+			mDownloader.pause();
+			break;
+		case SCROLL_STATE_TOUCH_SCROLL:
+			if (mPauseOnTouchScroll) {
+				mDownloader.pause();
+			} else {
+				mDownloader.resume();
+			}
+			break;
+		default:
+			mDownloader.resume();
+			break;
+		}
+		if (mListener != null) {
+			mListener.onScrollStateChanged(view, scrollState);
+		}
+	}
+
+	@Override
+	public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+		if (mListener != null) {
+			mListener.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.Random;
+
+/**
+ * Decides whether a download that failed in a way that may not last, such as a
+ * timeout, a dropped connection or a 5xx response, is tried again and how
+ * long to wait first. The wait doubles with each retry, up to a maximum, and
+ * a random half of it is taken off so that the images of a screen do not all
+ * retry at the same moment. The download gives up its slot while it waits.
+ * Use {@link #DEFAULT} for two retries, {@link #NONE} to never retry, or
+ * {@link #RetryPolicy(int, long, long)} for something else.
+ */
+public class RetryPolicy {
+
+	/**
+	 * Retry twice, after about half a second and then a second.
+	 */
+	public static final RetryPolicy DEFAULT = new RetryPolicy(2, 500, 8000);
+
+	/**
+	 * Never retry.
+	 */
+	public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+
+	private static final Random sRandom = new Random();
+
+	private final int mMaxRetries;
+	private final long mInitialBackoff;
+	private final long mMaxBackoff;
+
+	/**
+	 * @param maxRetries
+	 *          how many times a download is tried again after it first fails
+	 * @param initialBackoffMillis
+	 *          the most to wait before the first retry
+	 * @param maxBackoffMillis
+	 *          the most to wait before any retry
+	 */
+	public RetryPolicy(int maxRetries, long initialBackoffMillis, long maxBackoffMillis) {
+		mMaxRetries = maxRetries;
+		mInitialBackoff = initialBackoffMillis;
+		mMaxBackoff = maxBackoffMillis;
+	}
+
+	public int getMaxRetries() {
+		return mMaxRetries;
+	}
+
+	public long getInitialBackoff() {
+		return mInitialBackoff;
+	}
+
+	public long getMaxBackoff() {
+		return mMaxBackoff;
+	}
+
+	/**
+	 * @param retries
+	 *          how many times the download has already been retried
+	 * @param failure
+	 *          how it failed, one of the {@link NegativeCache} failures
+	 * @return true if it should be tried again
+	 */
+	boolean shouldRetry(int retries, int failure) {
+		return retries < mMaxRetries && (failure == NegativeCache.FAILURE_NETWORK || failure == NegativeCache.FAILURE_SERVER_ERROR);
+	}
+
+	/**
+	 * @param retry
+	 *          the retry about to be made, starting at 1
+	 * @return how long to wait before it, in milliseconds
+	 */
+	long getBackoff(int retry) {
+		long backoff = mInitialBackoff;
+		for (int i = 1; i < retry && backoff < mMaxBackoff; i++) {
+			backoff *= 2;
+		}
+		backoff = Math.min(backoff, mMaxBackoff);
+		synchronized (sRandom) {
+			return backoff / 2 + (long) (sRandom.nextDouble() * (backoff - backoff / 2));
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+/**
+ * What the downloaders in the process have done since it started, as returned
+ * by {@link BitmapDownloader#getStats()}. Times are in microseconds, sizes in
+ * bytes and throughput in bytes per second.
+ */
+public class Stats {
+
+	private final long mTime = System.currentTimeMillis();
+	private final long mMemoryHits;
+	private final long mMemoryMisses;
+	private final long mDiskHits;
+	private final long mDiskMisses;
+	private final long mDownloads;
+	private final long mDownloadFailures;
+	private final long mDownloadedBytes;
+	private final long mCancellations;
+	private final long mCoalesced;
+	private final Histogram mQueueWait;
+	private final Histogram mFirstByte;
+	private final Histogram mDownloadTime;
+	private final Histogram mThroughput;
+	private final Histogram mResponseSize;
+	private final Histogram mDecodeTimePerMegapixel;
+	private final int mMemoryCacheSize;
+	private final int mMemoryCacheMaxSize;
+	private final long mDiskCacheSize;
+	private final long mDiskCacheMaxSize;
+
+	/**
+	 * Receives the stats every so often, see
+	 * {@link BitmapDownloader#setStatsListener(StatsListener, long)}.
+	 */
+	public static interface StatsListener {
+		public void onStats(Stats stats);
+	}
+
+	Stats(long memoryHits, long memoryMisses, long diskHits, long diskMisses, long downloads, long downloadFailures, long downloadedBytes,
+			long cancellations, long coalesced, Histogram queueWait, Histogram firstByte, Histogram downloadTime, Histogram throughput,
+			Histogram responseSize, Histogram decodeTimePerMegapixel, int memoryCacheSize, int memoryCacheMaxSize, long diskCacheSize,
+			long diskCacheMaxSize) {
+		mMemoryHits = memoryHits;
+		mMemoryMisses = memoryMisses;
+		mDiskHits = diskHits;
+		mDiskMisses = diskMisses;
+		mDownloads = downloads;
+		mDownloadFailures = downloadFailures;
+		mDownloadedBytes = downloadedBytes;
+		mCancellations = cancellations;
+		mCoalesced = coalesced;
+		mQueueWait = queueWait;
+		mFirstByte = firstByte;
+		mDownloadTime = downloadTime;
+		mThroughput = throughput;
+		mResponseSize = responseSize;
+		mDecodeTimePerMegapixel = decodeTimePerMegapixel;
+		mMemoryCacheSize = memoryCacheSize;
+		mMemoryCacheMaxSize = memoryCacheMaxSize;
+		mDiskCacheSize = diskCacheSize;
+		mDiskCacheMaxSize = diskCacheMaxSize;
+	}
+
+	/**
+	 * @return when the stats were taken, in milliseconds since the epoch
+	 */
+	public long getTime() {
+		return mTime;
+	}
+
+	/**
+	 * @return how many requests found their image in the memory cache
+	 */
+	public long getMemoryHits() {
+		return mMemoryHits;
+	}
+
+	public long getMemoryMisses() {
+		return mMemoryMisses;
+	}
+
+	/**
+	 * @return the share of memory cache lookups that found the image, between 0
+	 *         and 1
+	 */
+	public double getMemoryHitRate() {
+		return rate(mMemoryHits, mMemoryMisses);
+	}
+
+	/**
+	 * @return how many requests that missed the memory cache were loaded from
+	 *         the disk cache
+	 */
+	public long getDiskHits() {
+		return mDiskHits;
+	}
+
+	public long getDiskMisses() {
+		return mDiskMisses;
+	}
+
+	public double getDiskHitRate() {
+		return rate(mDiskHits, mDiskMisses);
+	}
+
+	/**
+	 * @return how many downloads completed
+	 */
+	public long getDownloads() {
+		return mDownloads;
+	}
+
+	public long getDownloadFailures() {
+		return mDownloadFailures;
+	}
+
+	public long getDownloadedBytes() {
+		return mDownloadedBytes;
+	}
+
+	/**
+	 * @return how many requests were cancelled before their image was shown
+	 */
+	public long getCancellations() {
+		return mCancellations;
+	}
+
+	/**
+	 * @return how many requests waited for a download of the same image that
+	 *         was already under way, rather than downloading it again
+	 */
+	public long getCoalesced() {
+		return mCoalesced;
+	}
+
+	/**
+	 * @return how long downloads waited for their turn, in microseconds
+	 */
+	public Histogram getQueueWait() {
+		return mQueueWait;
+	}
+
+	/**
+	 * @return how long downloads took to receive their first byte, in
+	 *         microseconds
+	 */
+	public Histogram getTimeToFirstByte() {
+		return mFirstByte;
+	}
+
+	/**
+	 * @return how long downloads took from sending the request to receiving the
+	 *         last byte, in microseconds
+	 */
+	public Histogram getDownloadTime() {
+		return mDownloadTime;
+	}
+
+	/**
+	 * @return the throughput of each download, in bytes per second
+	 */
+	public Histogram getThroughput() {
+		return mThroughput;
+	}
+
+	/**
+	 * @return the size of each download, in bytes
+	 */
+	public Histogram getResponseSize() {
+		return mResponseSize;
+	}
+
+	/**
+	 * @return how long decoding and transforming took for each million pixels
+	 *         decoded, in microseconds
+	 */
+	public Histogram getDecodeTimePerMegapixel() {
+		return mDecodeTimePerMegapixel;
+	}
+
+	/**
+	 * @return the bytes used by the memory cache
+	 */
+	public int getMemoryCacheSize() {
+		return mMemoryCacheSize;
+	}
+
+	public int getMemoryCacheMaxSize() {
+		return mMemoryCacheMaxSize;
+	}
+
+	/**
+	 * @return the bytes used by the disk cache, or -1 if it has not been opened
+	 */
+	public long getDiskCacheSize() {
+		return mDiskCacheSize;
+	}
+
+	/**
+	 * @return the bytes the disk cache may use, or -1 if it has not been opened
+	 */
+	public long getDiskCacheMaxSize() {
+		return mDiskCacheMaxSize;
+	}
+
+	private static double rate(long hits, long misses) {
+		return hits + misses > 0 ? (double) hits / (hits + misses) : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "memory " + mMemoryHits + "/" + (mMemoryHits + mMemoryMisses) + ", disk " + mDiskHits + "/" + (mDiskHits + mDiskMisses) +
+				", downloads " + mDownloads + " (" + mDownloadFailures + " failed, " + mDownloadedBytes + " bytes), cancelled " + mCancellations +
+				", coalesced " + mCoalesced + ", queue wait {" + mQueueWait + "}, first byte {" + mFirstByte + "}, download {" + mDownloadTime +
+				"}, throughput {" + mThroughput + "}, decode per megapixel {" + mDecodeTimePerMegapixel + "}, memory cache " + mMemoryCacheSize +
+				"/" + mMemoryCacheMaxSize + ", disk cache " + mDiskCacheSize + "/" + mDiskCacheMaxSize;
+	}
+}
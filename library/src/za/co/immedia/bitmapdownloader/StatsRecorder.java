@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts what happens to requests as they pass through the engine. Every
+ * method can be called from any thread, and costs an atomic addition or two.
+ */
+class StatsRecorder {
+
+	private final AtomicLong mMemoryHits = new AtomicLong();
+	private final AtomicLong mMemoryMisses = new AtomicLong();
+	private final AtomicLong mDiskHits = new AtomicLong();
+	private final AtomicLong mDiskMisses = new AtomicLong();
+	private final AtomicLong mDownloads = new AtomicLong();
+	private final AtomicLong mDownloadFailures = new AtomicLong();
+	private final AtomicLong mDownloadedBytes = new AtomicLong();
+	private final AtomicLong mCancellations = new AtomicLong();
+	private final AtomicLong mCoalesced = new AtomicLong();
+	// in microseconds
+	private final Histogram mQueueWait = new Histogram();
+	private final Histogram mFirstByte = new Histogram();
+	private final Histogram mDownloadTime = new Histogram();
+	private final Histogram mDecodeTimePerMegapixel = new Histogram();
+	// in bytes per second
+	private final Histogram mThroughput = new Histogram();
+	private final Histogram mResponseSize = new Histogram();
+
+	void onMemoryHit() {
+		mMemoryHits.incrementAndGet();
+	}
+
+	void onMemoryMiss() {
+		mMemoryMisses.incrementAndGet();
+	}
+
+	void onDiskHit() {
+		mDiskHits.incrementAndGet();
+	}
+
+	void onDiskMiss() {
+		mDiskMisses.incrementAndGet();
+	}
+
+	void onCancelled() {
+		mCancellations.incrementAndGet();
+	}
+
+	/**
+	 * A request joined a download of the same image that was already under way.
+	 */
+	void onCoalesced() {
+		mCoalesced.incrementAndGet();
+	}
+
+	void onDequeued(long waitNanos) {
+		mQueueWait.record(waitNanos / 1000);
+	}
+
+	void onDownloaded(long bytes, long firstByteNanos, long totalNanos) {
+		mDownloads.incrementAndGet();
+		mDownloadedBytes.addAndGet(bytes);
+		mResponseSize.record(bytes);
+		mFirstByte.record(firstByteNanos / 1000);
+		mDownloadTime.record(totalNanos / 1000);
+		if (totalNanos > 0) {
+			mThroughput.record(bytes * 1000 * 1000 * 1000 / totalNanos);
+		}
+	}
+
+	void onDownloadFailed() {
+		mDownloadFailures.incrementAndGet();
+	}
+
+	/**
+	 * @param pixels
+	 *          the number of pixels in the decoded bitmap
+	 */
+	void onDecoded(long pixels, long nanos) {
+		if (pixels > 0) {
+			// microseconds per million pixels
+			mDecodeTimePerMegapixel.record(nanos * 1000 / pixels);
+		}
+	}
+
+	/**
+	 * @param diskCache
+	 *          may be null if the disk cache has not been used yet
+	 */
+	Stats snapshot(BitmapCache bitmapCache, DiskCache diskCache) {
+		return new Stats(mMemoryHits.get(), mMemoryMisses.get(), mDiskHits.get(), mDiskMisses.get(), mDownloads.get(), mDownloadFailures.get(),
+				mDownloadedBytes.get(), mCancellations.get(), mCoalesced.get(), mQueueWait.snapshot(), mFirstByte.snapshot(),
+				mDownloadTime.snapshot(), mThroughput.snapshot(), mResponseSize.snapshot(), mDecodeTimePerMegapixel.snapshot(), bitmapCache.size(),
+				bitmapCache.maxSize(), diskCache != null ? diskCache.getSize() : -1, diskCache != null ? diskCache.getMaxSize() : -1);
+	}
+}
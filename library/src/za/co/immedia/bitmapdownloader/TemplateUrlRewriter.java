@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Rewrites URLs by filling in a template, with the size rounded by
+ * {@link SizeBuckets}. The template can contain:
+ * <ul>
+ * <li>{url}, the original URL</li>
+ * <li>{encodedUrl}, the original URL encoded to be a query parameter</li>
+ * <li>{width} and {height}, the bucketed size in pixels</li>
+ * <li>{density}, the density of the display</li>
+ * </ul>
+ * For example <code>"{url}=w{width}-h{height}"</code> or
+ * <code>"http://resizer.example.com/?src={encodedUrl}&amp;w={width}&amp;h={height}"</code>
+ * .
+ */
+public class TemplateUrlRewriter implements UrlRewriter {
+
+	private final String mTemplate;
+
+	public TemplateUrlRewriter(String template) {
+		mTemplate = template;
+	}
+
+	@Override
+	public String rewrite(String url, int width, int height, float density) {
+		// fill in the URL last, so nothing in it is taken for a placeholder
+		String rewritten = mTemplate.replace("{width}", Integer.toString(SizeBuckets.bucket(width)))
+				.replace("{height}", Integer.toString(SizeBuckets.bucket(height))).replace("{density}", Float.toString(density));
+		if (rewritten.contains("{encodedUrl}")) {
+			try {
+				rewritten = rewritten.replace("{encodedUrl}", URLEncoder.encode(url, "UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				// UTF-8 is always supported
+				throw new AssertionError(e);
+			}
+		}
+		return rewritten.replace("{url}", url);
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+/**
+ * Limits how long a download may hold its slot. A download fails when
+ * connecting or waiting for the next bytes takes too long, when the whole
+ * request takes longer than the deadline, or when fewer bytes arrive over a
+ * window than the minimum throughput allows. These count as network errors,
+ * so the {@link RetryPolicy} decides whether they are tried again. Use
+ * {@link #DEFAULT}, or
+ * {@link #TimeoutPolicy(int, int, long, int, long)} for other limits.
+ */
+public class TimeoutPolicy {
+
+	/**
+	 * 15 seconds to connect, 20 seconds between reads, a minute in all, and at
+	 * least 1KB a second over any five seconds.
+	 */
+	public static final TimeoutPolicy DEFAULT = new TimeoutPolicy(15 * 1000, 20 * 1000, 60 * 1000, 1024, 5 * 1000);
+
+	private final int mConnectTimeout;
+	private final int mReadTimeout;
+	private final long mDeadline;
+	private final int mMinBytesPerSecond;
+	private final long mStallWindow;
+
+	/**
+	 * @param connectTimeoutMillis
+	 *          how long connecting may take
+	 * @param readTimeoutMillis
+	 *          how long to wait for the response, and then for each read
+	 * @param deadlineMillis
+	 *          how long the whole request may take, including redirects, 0 for
+	 *          no limit
+	 * @param minBytesPerSecond
+	 *          the slowest the body may arrive, 0 for no limit
+	 * @param stallWindowMillis
+	 *          how long the body may arrive slower than that
+	 */
+	public TimeoutPolicy(int connectTimeoutMillis, int readTimeoutMillis, long deadlineMillis, int minBytesPerSecond, long stallWindowMillis) {
+		mConnectTimeout = connectTimeoutMillis;
+		mReadTimeout = readTimeoutMillis;
+		mDeadline = deadlineMillis;
+		mMinBytesPerSecond = minBytesPerSecond;
+		mStallWindow = stallWindowMillis;
+	}
+
+	public int getConnectTimeout() {
+		return mConnectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return mReadTimeout;
+	}
+
+	public long getDeadline() {
+		return mDeadline;
+	}
+
+	public int getMinBytesPerSecond() {
+		return mMinBytesPerSecond;
+	}
+
+	public long getStallWindow() {
+		return mStallWindow;
+	}
+
+	/**
+	 * @return true if bytes arriving over windowMillis is too slow
+	 */
+	boolean isStalled(long bytes, long windowMillis) {
+		return mMinBytesPerSecond > 0 && bytes * 1000 < mMinBytesPerSecond * windowMillis;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Shows the disk lookups, downloads and decodes of the pipeline as sections in
+ * systrace, next to frame rendering. Sections are only emitted from Jelly Bean
+ * MR2 on, as {@link Trace} does not exist before. Stages that happen in a
+ * moment, such as {@link EventListener#DELIVERED}, have no section, but are
+ * passed on to the delegate.
+ */
+public class TraceEventListener implements EventListener {
+
+	private final EventListener mDelegate;
+
+	public TraceEventListener() {
+		this(null);
+	}
+
+	/**
+	 * @param delegate
+	 *          also told of every event, may be null
+	 */
+	public TraceEventListener(EventListener delegate) {
+		mDelegate = delegate;
+	}
+
+	@SuppressLint("NewApi")
+	@Override
+	public void onEvent(BitmapDownloader.Download download, int stage, long nanos) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			switch (stage) {
+			case DISK_LOOKUP_START:
+				Trace.beginSection("BitmapDownloader disk");
+				break;
+			case CONNECT:
+				Trace.beginSection("BitmapDownloader download");
+				break;
+			case DECODE_START:
+				Trace.beginSection("BitmapDownloader decode");
+				break;
+			case DISK_LOOKUP_END:
+			case BODY_COMPLETE:
+			case DOWNLOAD_ABORTED:
+			case DECODE_END:
+				Trace.endSection();
+				break;
+			}
+		}
+		if (mDelegate != null) {
+			mDelegate.onEvent(download, stage, nanos);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2012, James Smith
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *        names of its contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package za.co.immedia.bitmapdownloader;
+
+import java.util.ArrayList;
+
+import za.co.immedia.bitmapdownloader.BitmapTransitionDrawable.BitmapTransitionCallback;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.widget.ImageView;
+
+/**
+ * Runs the cross-fades of one {@link BitmapDownloader}. Every running
+ * transition is moved on from a single callback each frame, rather than each
+ * drawable invalidating itself, and the drawables are reused once their
+ * transition has finished. Only use this on the main thread.
+ */
+class TransitionAnimator {
+
+	/**
+	 * What a transition is shown on and who to tell when it has finished.
+	 */
+	interface Target extends BitmapTransitionCallback {
+		public ImageView getImageView();
+	}
+
+	private static final int LAYER_FROM = 1;
+	private static final int LAYER_TO = 2;
+	// enough to cover a screen of images fading in together
+	private static final int MAX_POOL_SIZE = 16;
+
+	/**
+	 * A transition with transparent layers of its own, to show under images that
+	 * have nothing to fade from and to hold while it is pooled. A drawable has
+	 * only one callback and one set of bounds, so they cannot be shared between
+	 * transitions.
+	 */
+	private static class PooledTransition extends BitmapTransitionDrawable {
+		final Drawable mEmptyFrom;
+		final Drawable mEmptyTo;
+
+		PooledTransition(Drawable[] layers, Drawable emptyFrom, Drawable emptyTo) {
+			super(layers);
+			mEmptyFrom = emptyFrom;
+			mEmptyTo = emptyTo;
+		}
+	}
+
+	private final ArrayList<PooledTransition> mActive = new ArrayList<PooledTransition>();
+	private final ArrayList<PooledTransition> mPool = new ArrayList<PooledTransition>();
+	private final FrameBatcher mFrameBatcher;
+	private final Runnable mFrame = new Runnable() {
+		@Override
+		public void run() {
+			doFrame();
+		}
+	};
+	private boolean mScheduled;
+
+	TransitionAnimator(FrameBatcher frameBatcher) {
+		mFrameBatcher = frameBatcher;
+	}
+
+	/**
+	 * Shows a cross-fade from whatever the target's view is showing to to.
+	 */
+	void start(Target target, Drawable to, int durationMillis) {
+		ImageView imageView = target.getImageView();
+		Drawable from = imageView.getDrawable();
+		if (from instanceof BitmapTransitionDrawable) {
+			// fade from the image that was fading in
+			BitmapTransitionDrawable previous = (BitmapTransitionDrawable) from;
+			from = previous.getDrawable(1);
+			if (mActive.remove(previous)) {
+				recycle((PooledTransition) previous);
+			}
+		}
+		PooledTransition drawable = obtain(from, to);
+		drawable.setTransitionCallback(target);
+		imageView.setImageDrawable(drawable);
+		drawable.startTransition(durationMillis, true);
+		mActive.add(drawable);
+		target.onStarted();
+		if (!mScheduled) {
+			mScheduled = true;
+			mFrameBatcher.post(mFrame);
+		}
+	}
+
+	/**
+	 * @param from
+	 *          the image to fade from, or null to fade from nothing
+	 */
+	private PooledTransition obtain(Drawable from, Drawable to) {
+		PooledTransition drawable;
+		if (mPool.isEmpty()) {
+			Drawable emptyFrom = new ColorDrawable(Color.TRANSPARENT);
+			Drawable[] layers = { from != null ? from : emptyFrom, to };
+			drawable = new PooledTransition(layers, emptyFrom, new ColorDrawable(Color.TRANSPARENT));
+			drawable.setId(0, LAYER_FROM);
+			drawable.setId(1, LAYER_TO);
+			drawable.setCrossFadeEnabled(true);
+		} else {
+			drawable = mPool.remove(mPool.size() - 1);
+			drawable.setDrawableByLayerId(LAYER_FROM, from != null ? from : drawable.mEmptyFrom);
+			drawable.setDrawableByLayerId(LAYER_TO, to);
+			// a reused transition may keep the bounds of the view it was last on,
+			// and setting them again to the same bounds would not pass them down
+			to.setBounds(drawable.getBounds());
+			if (from == null) {
+				drawable.mEmptyFrom.setBounds(drawable.getBounds());
+			}
+		}
+		return drawable;
+	}
+
+	private void recycle(PooledTransition drawable) {
+		drawable.setTransitionCallback(null);
+		drawable.resetTransition();
+		// don't hold on to the images
+		drawable.setDrawableByLayerId(LAYER_FROM, drawable.mEmptyFrom);
+		drawable.setDrawableByLayerId(LAYER_TO, drawable.mEmptyTo);
+		if (mPool.size() < MAX_POOL_SIZE) {
+			mPool.add(drawable);
+		}
+	}
+
+	private void doFrame() {
+		mScheduled = false;
+		long now = SystemClock.uptimeMillis();
+		for (int i = mActive.size() - 1; i >= 0; i--) {
+			PooledTransition drawable = mActive.get(i);
+			Target target = (Target) drawable.getTransitionCallback();
+			ImageView imageView = target.getImageView();
+			if (imageView == null || imageView.getDrawable() != drawable) {
+				// the view has moved on to another image
+				mActive.remove(i);
+				recycle(drawable);
+			} else if (!imageView.isShown() || imageView.getWindowToken() == null || drawable.step(now)) {
+				// nobody can see the rest of the fade, so skip to the end
+				mActive.remove(i);
+				Drawable to = drawable.getDrawable(1);
+				// take the image out of the drawable before the view takes it over
+				recycle(drawable);
+				imageView.setImageDrawable(to);
+				target.onEnded();
+			}
+		}
+		if (!mActive.isEmpty()) {
+			mScheduled = true;
+			mFrameBatcher.post(mFrame);
+		}
+	}
+}
@@ -1,7 +1,10 @@
 package za.co.immedia.bitmapdownloader;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
 
 class Utilities {
 
@@ -20,9 +23,56 @@ class Utilities {
 			return hexString.toString();
 	
 		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
+			Logger.w(Utilities.class.getCanonicalName(), "MD5 is not available", e);
 		}
 		return null;
 	}
 
+	/**
+	 * @return the lower case hex representation of bytes, two characters per byte
+	 */
+	static String toHex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+			hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * @return the host of url, without any user info or port, or null if url
+	 *         does not have one
+	 */
+	static String getHost(String url) {
+		if (url == null) {
+			return null;
+		}
+		int start = url.indexOf("://");
+		if (start == -1) {
+			return null;
+		}
+		start += 3;
+		int end = start;
+		while (end < url.length() && "/?#".indexOf(url.charAt(end)) == -1) {
+			end++;
+		}
+		String authority = url.substring(start, end);
+		authority = authority.substring(authority.lastIndexOf('@') + 1);
+		int port = authority.lastIndexOf(':');
+		// a colon inside brackets is part of an IPv6 address
+		if (port != -1 && port > authority.lastIndexOf(']')) {
+			authority = authority.substring(0, port);
+		}
+		return authority.length() > 0 ? authority.toLowerCase(Locale.US) : null;
+	}
+
+	static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+			}
+		}
+	}
 }